@@ -0,0 +1,17 @@
+package com.springframework.core;
+
+/**
+ * 默认的{@link ParameterNameDiscoverer}：先使用以{@code -parameters}编译保留的参数名
+ * （{@link StandardReflectionParameterNameDiscoverer}），
+ * 再从类文件的调试信息中读取（{@link LocalVariableTableParameterNameDiscoverer}）
+ * @author: zfan
+ * @create: 2021-08-04 09:44
+ **/
+public class DefaultParameterNameDiscoverer extends PrioritizedParameterNameDiscoverer {
+
+    public DefaultParameterNameDiscoverer() {
+        addDiscoverer(new StandardReflectionParameterNameDiscoverer());
+        addDiscoverer(new LocalVariableTableParameterNameDiscoverer());
+    }
+
+}
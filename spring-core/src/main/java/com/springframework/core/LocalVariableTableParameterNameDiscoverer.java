@@ -0,0 +1,477 @@
+package com.springframework.core;
+
+import com.springframework.lang.Nullable;
+import com.springframework.util.ConcurrentReferenceHashMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 读取参数名的{@link ParameterNameDiscoverer}实现：
+ * 先通过反射读取以{@code -parameters}编译保留的参数名，
+ * 没有时再从类文件的{@code MethodParameters}或{@code LocalVariableTable}属性中读取。
+ * <p>类文件由一个最小的流式解析器读取，不依赖ASM。每个类只解析一次，
+ * 一次性得到所有方法和构造器的参数名，按类以弱键缓存，只保存字符串，不引用类本身。
+ * 没有调试信息或无法读取类文件时返回{@code null}
+ * @author: zfan
+ * @create: 2021-08-04 09:44
+ **/
+public class LocalVariableTableParameterNameDiscoverer implements ParameterNameDiscoverer {
+
+    /** 无法读取类文件或没有参数名信息的类使用的标记 */
+    private static final Map<String, String[]> NO_DEBUG_INFO_MAP = Collections.emptyMap();
+
+    private static final String CONSTRUCTOR_NAME = "<init>";
+
+    /** 每个类的参数名，以方法名加描述符为键 */
+    private final ConcurrentReferenceHashMap<Class<?>, Map<String, String[]>> parameterNamesCache =
+            ConcurrentReferenceHashMap.<Class<?>, Map<String, String[]>>builder()
+                    .initialCapacity(32).referenceType(ConcurrentReferenceHashMap.ReferenceType.WEAK_KEYS)
+                    .identityKeys(true).writeMode(ConcurrentReferenceHashMap.WriteMode.CAS).build();
+
+
+    @Override
+    @Nullable
+    public String[] getParameterNames(Method method) {
+        return doGetParameterNames(method, method.getName());
+    }
+
+    @Override
+    @Nullable
+    public String[] getParameterNames(Constructor<?> ctor) {
+        return doGetParameterNames(ctor, CONSTRUCTOR_NAME);
+    }
+
+    @Nullable
+    private String[] doGetParameterNames(Executable executable, String name) {
+        if (executable.getParameterCount() == 0) {
+            return new String[0];
+        }
+        String[] parameterNames = getReflectiveParameterNames(executable);
+        if (parameterNames != null) {
+            return parameterNames;
+        }
+        Map<String, String[]> parameterNamesMap = getParameterNamesMap(executable.getDeclaringClass());
+        parameterNames = parameterNamesMap.get(name + getDescriptor(executable));
+        return (parameterNames != null ? parameterNames.clone() : null);
+    }
+
+    /**
+     * 读取以{@code -parameters}编译保留的参数名
+     */
+    @Nullable
+    private static String[] getReflectiveParameterNames(Executable executable) {
+        Parameter[] parameters = executable.getParameters();
+        String[] parameterNames = new String[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            Parameter parameter = parameters[i];
+            if (!parameter.isNamePresent()) {
+                return null;
+            }
+            parameterNames[i] = parameter.getName();
+        }
+        return parameterNames;
+    }
+
+    private Map<String, String[]> getParameterNamesMap(Class<?> clazz) {
+        Map<String, String[]> parameterNamesMap = this.parameterNamesCache.get(clazz);
+        if (parameterNamesMap == null) {
+            parameterNamesMap = inspectClass(clazz);
+            Map<String, String[]> existing = this.parameterNamesCache.putIfAbsent(clazz, parameterNamesMap);
+            if (existing != null) {
+                parameterNamesMap = existing;
+            }
+        }
+        return parameterNamesMap;
+    }
+
+    /**
+     * 读取并解析类文件，得到所有方法和构造器的参数名
+     */
+    private static Map<String, String[]> inspectClass(Class<?> clazz) {
+        String className = clazz.getName();
+        InputStream is = clazz.getResourceAsStream(className.substring(className.lastIndexOf('.') + 1) + ".class");
+        if (is == null) {
+            // 类文件不可读（例如动态生成的类）
+            return NO_DEBUG_INFO_MAP;
+        }
+        try {
+            Map<String, String[]> parameterNamesMap = new ClassFileReader(readFully(is)).readParameterNames();
+            return (parameterNamesMap.isEmpty() ? NO_DEBUG_INFO_MAP : parameterNamesMap);
+        }
+        catch (IOException | RuntimeException ex) {
+            // 类文件格式无法识别，视为没有参数名信息
+            return NO_DEBUG_INFO_MAP;
+        }
+        finally {
+            try {
+                is.close();
+            }
+            catch (IOException ex) {
+                // ignore
+            }
+        }
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 返回方法或构造器的JVM描述符，例如{@code (ILjava/lang/String;)V}
+     */
+    private static String getDescriptor(Executable executable) {
+        StringBuilder builder = new StringBuilder("(");
+        for (Class<?> parameterType : executable.getParameterTypes()) {
+            appendDescriptor(builder, parameterType);
+        }
+        builder.append(')');
+        appendDescriptor(builder, executable instanceof Method ? ((Method) executable).getReturnType() : void.class);
+        return builder.toString();
+    }
+
+    private static void appendDescriptor(StringBuilder builder, Class<?> type) {
+        Class<?> current = type;
+        while (current.isArray()) {
+            builder.append('[');
+            current = current.getComponentType();
+        }
+        if (current.isPrimitive()) {
+            char descriptor;
+            if (current == int.class) {
+                descriptor = 'I';
+            }
+            else if (current == void.class) {
+                descriptor = 'V';
+            }
+            else if (current == boolean.class) {
+                descriptor = 'Z';
+            }
+            else if (current == byte.class) {
+                descriptor = 'B';
+            }
+            else if (current == char.class) {
+                descriptor = 'C';
+            }
+            else if (current == short.class) {
+                descriptor = 'S';
+            }
+            else if (current == double.class) {
+                descriptor = 'D';
+            }
+            else if (current == float.class) {
+                descriptor = 'F';
+            }
+            else {
+                descriptor = 'J';
+            }
+            builder.append(descriptor);
+        }
+        else {
+            builder.append('L').append(current.getName().replace('.', '/')).append(';');
+        }
+    }
+
+
+    /**
+     * 最小的类文件解析器：只记录常量池中UTF8常量的位置，
+     * 跳过字段和其它属性，只读取方法的{@code MethodParameters}和{@code Code}中的{@code LocalVariableTable}
+     */
+    private static final class ClassFileReader {
+
+        private static final int MAGIC = 0xCAFEBABE;
+
+        private static final int ACC_STATIC = 0x0008;
+
+        private final byte[] bytes;
+
+        /** UTF8常量在类文件中的偏移，其它常量为0 */
+        private final int[] utf8Offsets;
+
+        private final String[] utf8Cache;
+
+        private int position;
+
+        ClassFileReader(byte[] bytes) throws IOException {
+            this.bytes = bytes;
+            if (readInt() != MAGIC) {
+                throw new IOException("Not a class file");
+            }
+            // 次版本号和主版本号
+            this.position += 4;
+            int constantPoolCount = readUnsignedShort();
+            this.utf8Offsets = new int[constantPoolCount];
+            this.utf8Cache = new String[constantPoolCount];
+            for (int i = 1; i < constantPoolCount; i++) {
+                int tag = readUnsignedByte();
+                switch (tag) {
+                    case 1:
+                        // Utf8
+                        this.utf8Offsets[i] = this.position;
+                        this.position += 2 + readUnsignedShort(this.position);
+                        break;
+                    case 3:
+                    case 4:
+                    case 9:
+                    case 10:
+                    case 11:
+                    case 12:
+                    case 17:
+                    case 18:
+                        this.position += 4;
+                        break;
+                    case 5:
+                    case 6:
+                        // Long 和 Double 占用两个常量池位置
+                        this.position += 8;
+                        i++;
+                        break;
+                    case 7:
+                    case 8:
+                    case 16:
+                    case 19:
+                    case 20:
+                        this.position += 2;
+                        break;
+                    case 15:
+                        this.position += 3;
+                        break;
+                    default:
+                        throw new IOException("Unknown constant pool tag " + tag);
+                }
+            }
+        }
+
+        /**
+         * 读取所有方法的参数名，以方法名加描述符为键
+         */
+        Map<String, String[]> readParameterNames() throws IOException {
+            // access_flags、this_class、super_class
+            this.position += 6;
+            int interfaceCount = readUnsignedShort();
+            this.position += 2 * interfaceCount;
+            int fieldCount = readUnsignedShort();
+            for (int i = 0; i < fieldCount; i++) {
+                this.position += 6;
+                skipAttributes();
+            }
+            int methodCount = readUnsignedShort();
+            Map<String, String[]> parameterNamesMap = new HashMap<>(methodCount * 2);
+            for (int i = 0; i < methodCount; i++) {
+                int access = readUnsignedShort();
+                String name = readUtf8(readUnsignedShort());
+                String descriptor = readUtf8(readUnsignedShort());
+                String[] parameterNames = readMethodAttributes(access, descriptor);
+                if (parameterNames != null) {
+                    parameterNamesMap.put(name + descriptor, parameterNames);
+                }
+            }
+            return parameterNamesMap;
+        }
+
+        @Nullable
+        private String[] readMethodAttributes(int access, String descriptor) throws IOException {
+            String[] methodParameterNames = null;
+            String[] localVariableNames = null;
+            int attributeCount = readUnsignedShort();
+            for (int i = 0; i < attributeCount; i++) {
+                String attributeName = readUtf8(readUnsignedShort());
+                int length = readInt();
+                int end = this.position + length;
+                if ("MethodParameters".equals(attributeName)) {
+                    methodParameterNames = readMethodParameters();
+                }
+                else if ("Code".equals(attributeName)) {
+                    localVariableNames = readCode(access, descriptor);
+                }
+                this.position = end;
+            }
+            return (methodParameterNames != null ? methodParameterNames : localVariableNames);
+        }
+
+        /**
+         * 读取{@code MethodParameters}属性，有参数没有名称时返回{@code null}
+         */
+        @Nullable
+        private String[] readMethodParameters() throws IOException {
+            int count = readUnsignedByte();
+            String[] names = new String[count];
+            for (int i = 0; i < count; i++) {
+                int nameIndex = readUnsignedShort();
+                this.position += 2;
+                if (nameIndex == 0) {
+                    return null;
+                }
+                names[i] = readUtf8(nameIndex);
+            }
+            return names;
+        }
+
+        /**
+         * 从{@code Code}属性的{@code LocalVariableTable}中读取参数名，
+         * 参数是从方法开始处就有效、位于参数槽位上的局部变量
+         */
+        @Nullable
+        private String[] readCode(int access, String descriptor) throws IOException {
+            // max_stack、max_locals
+            this.position += 4;
+            int codeLength = readInt();
+            this.position += codeLength;
+            int exceptionTableLength = readUnsignedShort();
+            this.position += 8 * exceptionTableLength;
+            int[] slots = getParameterSlots(access, descriptor);
+            String[] names = null;
+            int attributeCount = readUnsignedShort();
+            for (int i = 0; i < attributeCount; i++) {
+                String attributeName = readUtf8(readUnsignedShort());
+                int length = readInt();
+                int end = this.position + length;
+                if ("LocalVariableTable".equals(attributeName)) {
+                    int entryCount = readUnsignedShort();
+                    for (int j = 0; j < entryCount; j++) {
+                        int startPc = readUnsignedShort();
+                        this.position += 2;
+                        int nameIndex = readUnsignedShort();
+                        this.position += 2;
+                        int slot = readUnsignedShort();
+                        if (startPc == 0) {
+                            for (int k = 0; k < slots.length; k++) {
+                                if (slots[k] == slot) {
+                                    if (names == null) {
+                                        names = new String[slots.length];
+                                    }
+                                    names[k] = readUtf8(nameIndex);
+                                }
+                            }
+                        }
+                    }
+                }
+                this.position = end;
+            }
+            if (names != null) {
+                for (String name : names) {
+                    if (name == null) {
+                        return null;
+                    }
+                }
+            }
+            return names;
+        }
+
+        /**
+         * 按描述符计算各参数的局部变量槽位，实例方法从1开始，long和double占两个槽位
+         */
+        private static int[] getParameterSlots(int access, String descriptor) throws IOException {
+            int count = 0;
+            int i = 1;
+            while (descriptor.charAt(i) != ')') {
+                i = skipFieldDescriptor(descriptor, i);
+                count++;
+            }
+            int[] slots = new int[count];
+            int slot = ((access & ACC_STATIC) != 0 ? 0 : 1);
+            i = 1;
+            for (int k = 0; k < count; k++) {
+                char c = descriptor.charAt(i);
+                slots[k] = slot;
+                slot += (c == 'J' || c == 'D' ? 2 : 1);
+                i = skipFieldDescriptor(descriptor, i);
+            }
+            return slots;
+        }
+
+        private static int skipFieldDescriptor(String descriptor, int index) throws IOException {
+            int i = index;
+            while (descriptor.charAt(i) == '[') {
+                i++;
+            }
+            if (descriptor.charAt(i) == 'L') {
+                i = descriptor.indexOf(';', i);
+                if (i < 0) {
+                    throw new IOException("Malformed descriptor " + descriptor);
+                }
+            }
+            return i + 1;
+        }
+
+        private void skipAttributes() {
+            int attributeCount = readUnsignedShort();
+            for (int i = 0; i < attributeCount; i++) {
+                this.position += 2;
+                int length = readInt();
+                this.position += length;
+            }
+        }
+
+        /**
+         * 按修改后的UTF-8解码常量池中的字符串
+         */
+        private String readUtf8(int index) throws IOException {
+            String value = this.utf8Cache[index];
+            if (value != null) {
+                return value;
+            }
+            int offset = this.utf8Offsets[index];
+            if (offset == 0) {
+                throw new IOException("Constant pool entry " + index + " is not a Utf8 constant");
+            }
+            int length = readUnsignedShort(offset);
+            int current = offset + 2;
+            int end = current + length;
+            char[] chars = new char[length];
+            int count = 0;
+            while (current < end) {
+                int b = this.bytes[current++] & 0xFF;
+                if (b < 0x80) {
+                    chars[count++] = (char) b;
+                }
+                else if ((b & 0xE0) == 0xC0) {
+                    chars[count++] = (char) (((b & 0x1F) << 6) | (this.bytes[current++] & 0x3F));
+                }
+                else {
+                    chars[count++] = (char) (((b & 0x0F) << 12) | ((this.bytes[current++] & 0x3F) << 6) |
+                            (this.bytes[current++] & 0x3F));
+                }
+            }
+            value = new String(chars, 0, count);
+            this.utf8Cache[index] = value;
+            return value;
+        }
+
+        private int readUnsignedByte() {
+            return this.bytes[this.position++] & 0xFF;
+        }
+
+        private int readUnsignedShort() {
+            int value = readUnsignedShort(this.position);
+            this.position += 2;
+            return value;
+        }
+
+        private int readUnsignedShort(int offset) {
+            return ((this.bytes[offset] & 0xFF) << 8) | (this.bytes[offset + 1] & 0xFF);
+        }
+
+        private int readInt() {
+            int value = ((this.bytes[this.position] & 0xFF) << 24) | ((this.bytes[this.position + 1] & 0xFF) << 16) |
+                    ((this.bytes[this.position + 2] & 0xFF) << 8) | (this.bytes[this.position + 3] & 0xFF);
+            this.position += 4;
+            return value;
+        }
+    }
+
+}
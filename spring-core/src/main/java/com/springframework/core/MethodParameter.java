@@ -1,11 +1,16 @@
 package com.springframework.core;
 
 import com.springframework.lang.Nullable;
+import com.springframework.util.Assert;
 import com.springframework.util.ClassUtils;
+import com.springframework.util.ConcurrentReferenceHashMap;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.*;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * @author: zfan
@@ -15,8 +20,20 @@ public class MethodParameter {
 
     private static final Annotation[] empty_annotation_array = new Annotation[0];
 
+    /**
+     * 每个方法或构造器共享的参数元数据。泛型方法的泛型参数类型含有{@link java.lang.reflect.TypeVariable}，
+     * 会经{@code getGenericDeclaration()}引用方法本身，因此条目绑定在声明类上，随声明类卸载而清除
+     */
+    private static final ConcurrentReferenceHashMap<Executable, ExecutableMetadata> metadataCache =
+            ConcurrentReferenceHashMap.<Executable, ExecutableMetadata>builder()
+                    .initialCapacity(256).referenceType(ConcurrentReferenceHashMap.ReferenceType.EPHEMERON)
+                    .writeMode(ConcurrentReferenceHashMap.WriteMode.CAS).backgroundPurge(true).build();
+
     private final Executable executable;
 
+    /** 同一方法或构造器的所有参数共享的元数据 */
+    private final ExecutableMetadata metadata;
+
     private final int parameterIndex;
 
     @Nullable
@@ -46,16 +63,37 @@ public class MethodParameter {
     @Nullable
     private volatile String parameterName;
 
+    /** 当前嵌套级别的泛型类型，第一级即为参数的泛型类型 */
+    @Nullable
+    private volatile Type nestedGenericParameterType;
+
+    /** 当前嵌套级别解析得到的类 */
+    @Nullable
+    private volatile Class<?> nestedParameterType;
+
+    /** 未指定类型索引的下一级嵌套参数 */
     @Nullable
     private volatile MethodParameter nestedMethodParameter;
 
+    /** 按类型索引缓存的下一级嵌套参数，只通过CAS整体替换 */
+    @Nullable
+    private volatile MethodParameter[] indexedNestedMethodParameters;
+
+    private static final AtomicReferenceFieldUpdater<MethodParameter, MethodParameter> nestedMethodParameterUpdater =
+            AtomicReferenceFieldUpdater.newUpdater(MethodParameter.class, MethodParameter.class, "nestedMethodParameter");
+
+    private static final AtomicReferenceFieldUpdater<MethodParameter, MethodParameter[]> indexedNestedMethodParametersUpdater =
+            AtomicReferenceFieldUpdater.newUpdater(MethodParameter.class, MethodParameter[].class, "indexedNestedMethodParameters");
+
     public MethodParameter(Method method, int parameterIndex) {
         this(method, parameterIndex, 1);
     }
 
     public MethodParameter(Method method, int parameterIndex, int nestingLevel) {
+        Assert.notNull(method, "Method must not be null");
         this.executable = method;
-        this.parameterIndex = validateIndex(method, parameterIndex);
+        this.metadata = ExecutableMetadata.forExecutable(method);
+        this.parameterIndex = validateIndex(this.metadata, parameterIndex);
         this.nestingLevel = nestingLevel;
     }
 
@@ -64,18 +102,23 @@ public class MethodParameter {
     }
 
     public MethodParameter(Constructor<?> constructor, int parameterIndex, int nestingLevel) {
+        Assert.notNull(constructor, "Constructor must not be null");
         this.executable = constructor;
-        this.parameterIndex = validateIndex(constructor, parameterIndex);
+        this.metadata = ExecutableMetadata.forExecutable(constructor);
+        this.parameterIndex = validateIndex(this.metadata, parameterIndex);
         this.nestingLevel = nestingLevel;
     }
 
-    private static int validateIndex(Executable executable, int parameterIndex) {
-        executable.getParameterCount();
+    private static int validateIndex(ExecutableMetadata metadata, int parameterIndex) {
+        int count = metadata.parameterCount;
+        Assert.isTrue(parameterIndex >= -1 && parameterIndex < count,
+                "Parameter index needs to be between -1 and " + (count - 1));
         return parameterIndex;
     }
 
     public MethodParameter(MethodParameter original) {
         this.executable = original.executable;
+        this.metadata = original.metadata;
         this.parameterIndex = original.parameterIndex;
         this.parameter = original.parameter;
         this.nestingLevel = original.nestingLevel;
@@ -86,6 +129,27 @@ public class MethodParameter {
         this.parameterAnnotations = original.parameterAnnotations;
         this.parameterNameDiscoverer = original.parameterNameDiscoverer;
         this.parameterName = original.parameterName;
+        this.nestedGenericParameterType = original.nestedGenericParameterType;
+        this.nestedParameterType = original.nestedParameterType;
+    }
+
+    /**
+     * 创建下一级嵌套参数，预先计算该级别的泛型类型和解析得到的类
+     */
+    private MethodParameter(MethodParameter parent, @Nullable Integer typeIndex) {
+        this(parent);
+        this.nestingLevel = parent.nestingLevel + 1;
+        if (typeIndex != null || parent.typeIndexesPerLevel != null) {
+            Map<Integer, Integer> typeIndexes = (parent.typeIndexesPerLevel != null ?
+                    new HashMap<>(parent.typeIndexesPerLevel) : new HashMap<>(4));
+            if (typeIndex != null) {
+                typeIndexes.put(this.nestingLevel, typeIndex);
+            }
+            this.typeIndexesPerLevel = Collections.unmodifiableMap(typeIndexes);
+        }
+        Type nestedType = getElementType(parent.getNestedGenericParameterType(), typeIndex);
+        this.nestedGenericParameterType = nestedType;
+        this.nestedParameterType = resolveClass(nestedType);
     }
 
     @Nullable
@@ -104,6 +168,14 @@ public class MethodParameter {
         return this.executable.getDeclaringClass();
     }
 
+    /**
+     * 返回包含此参数的类，未单独设置时即为声明类
+     */
+    public Class<?> getContainingClass() {
+        Class<?> containingClass = this.containingClass;
+        return (containingClass != null ? containingClass : getDeclaringClass());
+    }
+
     public int getParameterIndex() {
         return this.parameterIndex;
     }
@@ -117,7 +189,7 @@ public class MethodParameter {
                 paramType = (method != null ? method.getGenericReturnType() : void.class);
             }
             else {
-                Type[] genericParameterTypes = this.executable.getGenericParameterTypes();
+                Type[] genericParameterTypes = this.metadata.getGenericParameterTypes(this.executable);
                 int index = this.parameterIndex;
                 if (this.executable instanceof Constructor &&
                         ClassUtils.isInnerClass(this.executable.getDeclaringClass()) &&
@@ -144,7 +216,7 @@ public class MethodParameter {
                 paramType = (method != null ? method.getReturnType() : void.class);
             }
             else {
-                paramType = this.executable.getParameterTypes()[this.parameterIndex];
+                paramType = this.metadata.getParameterTypes(this.executable)[this.parameterIndex];
             }
             this.parameterType = paramType;
         }
@@ -152,4 +224,302 @@ public class MethodParameter {
     }
 
 
+    /**
+     * 返回嵌套级别，1表示参数本身，2表示参数的元素类型，依此类推
+     */
+    public int getNestingLevel() {
+        return this.nestingLevel;
+    }
+
+    /**
+     * 返回指定嵌套级别的类型索引，未指定时返回{@code null}，即使用最后一个泛型参数
+     */
+    @Nullable
+    public Integer getTypeIndexForLevel(int nestingLevel) {
+        Map<Integer, Integer> typeIndexes = this.typeIndexesPerLevel;
+        return (typeIndexes != null ? typeIndexes.get(nestingLevel) : null);
+    }
+
+    /**
+     * 返回下一级嵌套参数，例如{@code List<String>}参数的{@code String}元素
+     * @see #nested(Integer)
+     */
+    public MethodParameter nested() {
+        return nested(null);
+    }
+
+    /**
+     * 返回下一级嵌套参数，对同一个类型索引总是返回同一个共享实例
+     * @param typeIndex 下一级使用的泛型参数索引，{@code null}表示最后一个泛型参数，例如Map的值类型
+     */
+    public MethodParameter nested(@Nullable Integer typeIndex) {
+        if (typeIndex == null) {
+            MethodParameter nested = this.nestedMethodParameter;
+            if (nested == null) {
+                nestedMethodParameterUpdater.compareAndSet(this, null, new MethodParameter(this, null));
+                nested = this.nestedMethodParameter;
+            }
+            return nested;
+        }
+        Assert.isTrue(typeIndex >= 0, "Type index must not be negative");
+        while (true) {
+            MethodParameter[] nestedParameters = this.indexedNestedMethodParameters;
+            if (nestedParameters != null && typeIndex < nestedParameters.length && nestedParameters[typeIndex] != null) {
+                return nestedParameters[typeIndex];
+            }
+            MethodParameter[] updated = new MethodParameter[nestedParameters != null ?
+                    Math.max(nestedParameters.length, typeIndex + 1) : typeIndex + 1];
+            if (nestedParameters != null) {
+                System.arraycopy(nestedParameters, 0, updated, 0, nestedParameters.length);
+            }
+            updated[typeIndex] = new MethodParameter(this, typeIndex);
+            if (indexedNestedMethodParametersUpdater.compareAndSet(this, nestedParameters, updated)) {
+                return updated[typeIndex];
+            }
+        }
+    }
+
+    /**
+     * 返回指定嵌套级别的参数，中间级别使用最后一个泛型参数，最后一级使用给定的类型索引
+     * @param nestingLevel 目标嵌套级别，必须大于当前级别
+     * @param typeIndex 目标级别使用的泛型参数索引，{@code null}表示最后一个泛型参数
+     */
+    public MethodParameter nested(int nestingLevel, @Nullable Integer typeIndex) {
+        Assert.isTrue(nestingLevel > this.nestingLevel,
+                "Nesting level must be greater than the current nesting level " + this.nestingLevel);
+        MethodParameter nested = this;
+        while (nested.nestingLevel < nestingLevel - 1) {
+            nested = nested.nested(null);
+        }
+        return nested.nested(typeIndex);
+    }
+
+    /**
+     * 返回当前嵌套级别的泛型类型，无法确定时为{@code Object.class}
+     */
+    public Type getNestedGenericParameterType() {
+        Type nestedType = this.nestedGenericParameterType;
+        if (nestedType == null) {
+            nestedType = getGenericParameterType();
+            for (int level = 2; level <= this.nestingLevel; level++) {
+                nestedType = getElementType(nestedType, getTypeIndexForLevel(level));
+            }
+            this.nestedGenericParameterType = nestedType;
+        }
+        return nestedType;
+    }
+
+    /**
+     * 返回当前嵌套级别解析得到的类，无法确定时为{@code Object.class}
+     */
+    public Class<?> getNestedParameterType() {
+        Class<?> nestedType = this.nestedParameterType;
+        if (nestedType == null) {
+            nestedType = (this.nestingLevel > 1 ? resolveClass(getNestedGenericParameterType()) : getParameterType());
+            this.nestedParameterType = nestedType;
+        }
+        return nestedType;
+    }
+
+    /**
+     * 返回容器类型的元素类型：参数化类型取指定（默认最后一个）泛型参数，数组取组件类型，通配符按其上界
+     */
+    private static Type getElementType(Type type, @Nullable Integer typeIndex) {
+        if (type instanceof WildcardType) {
+            Type[] upperBounds = ((WildcardType) type).getUpperBounds();
+            return (upperBounds.length > 0 ? getElementType(upperBounds[0], typeIndex) : Object.class);
+        }
+        if (type instanceof ParameterizedType) {
+            Type[] args = ((ParameterizedType) type).getActualTypeArguments();
+            int index = (typeIndex != null ? typeIndex : args.length - 1);
+            return (index >= 0 && index < args.length ? args[index] : Object.class);
+        }
+        if (type instanceof GenericArrayType) {
+            return ((GenericArrayType) type).getGenericComponentType();
+        }
+        if (type instanceof Class && ((Class<?>) type).isArray()) {
+            return ((Class<?>) type).getComponentType();
+        }
+        return Object.class;
+    }
+
+    private static Class<?> resolveClass(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return resolveClass(((ParameterizedType) type).getRawType());
+        }
+        if (type instanceof GenericArrayType) {
+            Class<?> componentType = resolveClass(((GenericArrayType) type).getGenericComponentType());
+            return Array.newInstance(componentType, 0).getClass();
+        }
+        if (type instanceof WildcardType) {
+            Type[] upperBounds = ((WildcardType) type).getUpperBounds();
+            return (upperBounds.length > 0 ? resolveClass(upperBounds[0]) : Object.class);
+        }
+        if (type instanceof TypeVariable) {
+            Type[] bounds = ((TypeVariable<?>) type).getBounds();
+            return (bounds.length > 0 ? resolveClass(bounds[0]) : Object.class);
+        }
+        return Object.class;
+    }
+
+    /**
+     * 返回此参数上的注解，方法返回值（索引为-1）返回方法上的注解
+     * <p>返回的数组是共享的，不能修改
+     */
+    public Annotation[] getParameterAnnotations() {
+        Annotation[] paramAnns = this.parameterAnnotations;
+        if (paramAnns == null) {
+            if (this.parameterIndex < 0) {
+                paramAnns = this.executable.getDeclaredAnnotations();
+            }
+            else {
+                Annotation[][] annotationArray = this.metadata.getParameterAnnotations(this.executable);
+                int index = this.parameterIndex;
+                if (this.executable instanceof Constructor &&
+                        ClassUtils.isInnerClass(this.executable.getDeclaringClass()) &&
+                        annotationArray.length == this.metadata.parameterCount - 1) {
+                    // Bug in javac in JDK <9: annotation array excludes enclosing instance parameter
+                    // for inner classes, so access it with the actual parameter index lowered by 1
+                    index = this.parameterIndex - 1;
+                }
+                paramAnns = (index >= 0 && index < annotationArray.length ?
+                        annotationArray[index] : empty_annotation_array);
+            }
+            this.parameterAnnotations = paramAnns;
+        }
+        return paramAnns;
+    }
+
+    /**
+     * 设置用于获取参数名的{@link ParameterNameDiscoverer}
+     */
+    public void initParameterNameDiscovery(@Nullable ParameterNameDiscoverer parameterNameDiscoverer) {
+        this.parameterNameDiscoverer = parameterNameDiscoverer;
+    }
+
+    /**
+     * 返回参数名：设置了{@link ParameterNameDiscoverer}时由其获取，
+     * 否则使用编译时以{@code -parameters}保留的参数名，都没有时返回{@code null}
+     */
+    @Nullable
+    public String getParameterName() {
+        if (this.parameterIndex < 0) {
+            return null;
+        }
+        ParameterNameDiscoverer discoverer = this.parameterNameDiscoverer;
+        if (discoverer != null) {
+            String[] parameterNames = null;
+            if (this.executable instanceof Method) {
+                parameterNames = discoverer.getParameterNames((Method) this.executable);
+            }
+            else if (this.executable instanceof Constructor) {
+                parameterNames = discoverer.getParameterNames((Constructor<?>) this.executable);
+            }
+            if (parameterNames != null) {
+                this.parameterName = parameterNames[this.parameterIndex];
+            }
+            this.parameterNameDiscoverer = null;
+        }
+        else if (this.parameterName == null) {
+            String[] parameterNames = this.metadata.getParameterNames(this.executable);
+            if (parameterNames != null) {
+                this.parameterName = parameterNames[this.parameterIndex];
+            }
+        }
+        return this.parameterName;
+    }
+
+
+    /**
+     * 一个方法或构造器的参数元数据：参数类型、泛型参数类型、参数注解和参数名，
+     * 每项在首次使用时从反射读取一次，之后由该方法或构造器的所有MethodParameter共享。
+     * <p>读取时由调用方传入方法或构造器
+     */
+    private static final class ExecutableMetadata {
+
+        /** 反射未保留参数名时使用的标记 */
+        private static final String[] NO_PARAMETER_NAMES = new String[0];
+
+        final int parameterCount;
+
+        @Nullable
+        private volatile Class<?>[] parameterTypes;
+
+        @Nullable
+        private volatile Type[] genericParameterTypes;
+
+        @Nullable
+        private volatile Annotation[][] parameterAnnotations;
+
+        @Nullable
+        private volatile String[] parameterNames;
+
+        private ExecutableMetadata(int parameterCount) {
+            this.parameterCount = parameterCount;
+        }
+
+        static ExecutableMetadata forExecutable(Executable executable) {
+            ExecutableMetadata metadata = metadataCache.get(executable);
+            if (metadata == null) {
+                metadata = new ExecutableMetadata(executable.getParameterCount());
+                ExecutableMetadata existing = metadataCache.putIfAbsent(executable, metadata);
+                if (existing != null) {
+                    metadata = existing;
+                }
+            }
+            return metadata;
+        }
+
+        Class<?>[] getParameterTypes(Executable executable) {
+            Class<?>[] parameterTypes = this.parameterTypes;
+            if (parameterTypes == null) {
+                parameterTypes = executable.getParameterTypes();
+                this.parameterTypes = parameterTypes;
+            }
+            return parameterTypes;
+        }
+
+        Type[] getGenericParameterTypes(Executable executable) {
+            Type[] genericParameterTypes = this.genericParameterTypes;
+            if (genericParameterTypes == null) {
+                genericParameterTypes = executable.getGenericParameterTypes();
+                this.genericParameterTypes = genericParameterTypes;
+            }
+            return genericParameterTypes;
+        }
+
+        Annotation[][] getParameterAnnotations(Executable executable) {
+            Annotation[][] parameterAnnotations = this.parameterAnnotations;
+            if (parameterAnnotations == null) {
+                parameterAnnotations = executable.getParameterAnnotations();
+                this.parameterAnnotations = parameterAnnotations;
+            }
+            return parameterAnnotations;
+        }
+
+        /**
+         * 返回编译时以{@code -parameters}保留的参数名，没有保留时返回{@code null}
+         */
+        @Nullable
+        String[] getParameterNames(Executable executable) {
+            String[] parameterNames = this.parameterNames;
+            if (parameterNames == null) {
+                Parameter[] parameters = executable.getParameters();
+                parameterNames = new String[parameters.length];
+                for (int i = 0; i < parameters.length; i++) {
+                    if (!parameters[i].isNamePresent()) {
+                        parameterNames = NO_PARAMETER_NAMES;
+                        break;
+                    }
+                    parameterNames[i] = parameters[i].getName();
+                }
+                this.parameterNames = parameterNames;
+            }
+            return (parameterNames != NO_PARAMETER_NAMES ? parameterNames : null);
+        }
+    }
+
 }
@@ -0,0 +1,126 @@
+package com.springframework.core;
+
+import com.springframework.lang.Nullable;
+import com.springframework.util.Assert;
+import com.springframework.util.ConcurrentReferenceHashMap;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 按添加顺序依次尝试多个{@link ParameterNameDiscoverer}，返回第一个非{@code null}的结果。
+ * <p>每个声明类记住上次成功的策略，之后先尝试该策略；每个方法或构造器的结果只查找一次，
+ * 包括没有参数名的结果。返回的数组是共享的，调用方只能读取，不能修改
+ * @author: zfan
+ * @create: 2021-08-04 09:44
+ **/
+public class PrioritizedParameterNameDiscoverer implements ParameterNameDiscoverer {
+
+    /** 没有参数名时缓存的标记 */
+    private static final String[] NO_PARAMETER_NAMES = new String[0];
+
+    private final List<ParameterNameDiscoverer> parameterNameDiscoverers = new CopyOnWriteArrayList<>();
+
+    /**
+     * 每个声明类的查找状态，条目与声明类同生命周期，类卸载后即被清除
+     */
+    private final ConcurrentReferenceHashMap<Class<?>, ClassParameterNames> parameterNamesCache =
+            ConcurrentReferenceHashMap.<Class<?>, ClassParameterNames>builder()
+                    .initialCapacity(64).referenceType(ConcurrentReferenceHashMap.ReferenceType.EPHEMERON)
+                    .identityKeys(true).writeMode(ConcurrentReferenceHashMap.WriteMode.CAS).build();
+
+
+    /**
+     * 添加一个策略，排在已有策略之后。已缓存的结果会被清除
+     */
+    public void addDiscoverer(ParameterNameDiscoverer pnd) {
+        Assert.notNull(pnd, "ParameterNameDiscoverer must not be null");
+        this.parameterNameDiscoverers.add(pnd);
+        this.parameterNamesCache.clear();
+    }
+
+    @Override
+    @Nullable
+    public String[] getParameterNames(Method method) {
+        return getParameterNames((Executable) method);
+    }
+
+    @Override
+    @Nullable
+    public String[] getParameterNames(Constructor<?> ctor) {
+        return getParameterNames((Executable) ctor);
+    }
+
+    @Nullable
+    private String[] getParameterNames(Executable executable) {
+        ClassParameterNames classParameterNames = getClassParameterNames(executable.getDeclaringClass());
+        String[] parameterNames = classParameterNames.names.get(executable);
+        if (parameterNames == null) {
+            parameterNames = discoverParameterNames(classParameterNames, executable);
+            String[] existing = classParameterNames.names.putIfAbsent(executable, parameterNames);
+            if (existing != null) {
+                parameterNames = existing;
+            }
+        }
+        return (parameterNames != NO_PARAMETER_NAMES ? parameterNames : null);
+    }
+
+    private ClassParameterNames getClassParameterNames(Class<?> clazz) {
+        ClassParameterNames classParameterNames = this.parameterNamesCache.get(clazz);
+        if (classParameterNames == null) {
+            classParameterNames = new ClassParameterNames();
+            ClassParameterNames existing = this.parameterNamesCache.putIfAbsent(clazz, classParameterNames);
+            if (existing != null) {
+                classParameterNames = existing;
+            }
+        }
+        return classParameterNames;
+    }
+
+    /**
+     * 先尝试该类上次成功的策略，再按顺序尝试其余策略
+     */
+    private String[] discoverParameterNames(ClassParameterNames classParameterNames, Executable executable) {
+        List<ParameterNameDiscoverer> discoverers = this.parameterNameDiscoverers;
+        int preferred = classParameterNames.strategyIndex;
+        if (preferred >= 0 && preferred < discoverers.size()) {
+            String[] result = discover(discoverers.get(preferred), executable);
+            if (result != null) {
+                return result;
+            }
+        }
+        for (int i = 0; i < discoverers.size(); i++) {
+            if (i != preferred) {
+                String[] result = discover(discoverers.get(i), executable);
+                if (result != null) {
+                    classParameterNames.strategyIndex = i;
+                    return result;
+                }
+            }
+        }
+        return NO_PARAMETER_NAMES;
+    }
+
+    @Nullable
+    private static String[] discover(ParameterNameDiscoverer pnd, Executable executable) {
+        return (executable instanceof Method ? pnd.getParameterNames((Method) executable) :
+                pnd.getParameterNames((Constructor<?>) executable));
+    }
+
+
+    /**
+     * 一个声明类的查找状态：上次成功的策略和各方法、构造器的参数名
+     */
+    private static final class ClassParameterNames {
+
+        /** 上次成功的策略在列表中的位置，还没有成功过时为-1 */
+        volatile int strategyIndex = -1;
+
+        final ConcurrentHashMap<Executable, String[]> names = new ConcurrentHashMap<>();
+    }
+
+}
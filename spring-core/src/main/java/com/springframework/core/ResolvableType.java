@@ -3,10 +3,24 @@ package com.springframework.core;
 import com.springframework.core.SerializableTypeWrapper.TypeProvider;
 import com.springframework.lang.Nullable;
 import com.springframework.util.Assert;
+import com.springframework.util.ClassUtils;
 import com.springframework.util.ConcurrentReferenceHashMap;
+import com.springframework.util.ObjectUtils;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
+import java.io.StreamCorruptedException;
 import java.lang.reflect.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * 封装Java{@link Java.lang.reflect.Type}，
@@ -21,7 +35,48 @@ public class ResolvableType implements Serializable {
 
     private static final ResolvableType[] EMPTY_TYPES_ARRAY = new ResolvableType[0];
 
-    private static final ConcurrentReferenceHashMap<ResolvableType, ResolvableType> cache = new ConcurrentReferenceHashMap<>(256);
+    /**
+     * 泛型类型的规范实例缓存，以 {@link CacheKey} 为键，同一泛型形态只保留一个实例
+     */
+    private static final ConcurrentReferenceHashMap<CacheKey, ResolvableType> cache =
+            ConcurrentReferenceHashMap.<CacheKey, ResolvableType>builder()
+                    .initialCapacity(256).writeMode(ConcurrentReferenceHashMap.WriteMode.CAS)
+                    .backgroundPurge(true).recordStats(true).build();
+
+    /**
+     * 每个线程复用的查询键，命中缓存时不产生任何分配
+     */
+    private static final ThreadLocal<CacheKey> lookupKeys = ThreadLocal.withInitial(CacheKey::new);
+
+    /**
+     * 每个{@link Class}预先计算的解析表，所有以该类为类型的实例共享。
+     * 条目绑定在作为键的类上，只要类未被卸载就不会因内存紧张被回收，类按同一性比较
+     */
+    private static final ConcurrentReferenceHashMap<Class<?>, ResolutionTable> classResolutions =
+            ConcurrentReferenceHashMap.<Class<?>, ResolutionTable>builder()
+                    .initialCapacity(256).referenceType(ConcurrentReferenceHashMap.ReferenceType.EPHEMERON)
+                    .identityKeys(true).writeMode(ConcurrentReferenceHashMap.WriteMode.CAS)
+                    .backgroundPurge(true).build();
+
+    /**
+     * 可分配性缓存的最大条目数
+     */
+    private static final int ASSIGNABILITY_CACHE_SIZE = 4096;
+
+    /**
+     * 以(目标类型, 来源类型)为键的可分配性检查结果，包括否定结果；
+     * 条目数有上限，值为软引用，可通过{@link #clearCache(ClassLoader)}释放指定类加载器的类
+     */
+    private static final ConcurrentReferenceHashMap<AssignabilityKey, Boolean> assignabilityCache =
+            ConcurrentReferenceHashMap.<AssignabilityKey, Boolean>builder()
+                    .initialCapacity(256).writeMode(ConcurrentReferenceHashMap.WriteMode.CAS)
+                    .maximumSize(ASSIGNABILITY_CACHE_SIZE).backgroundPurge(true).recordStats(true).build();
+
+    /**
+     * 每个线程复用的可分配性查询键，命中缓存时不产生任何分配
+     */
+    private static final ThreadLocal<AssignabilityKey> assignabilityLookupKeys =
+            ThreadLocal.withInitial(AssignabilityKey::new);
 
     /**
      * java底层类型管理
@@ -43,12 +98,21 @@ public class ResolvableType implements Serializable {
     /**
      * 数组的组件类型或{@code null}(如果应该推断该类型)。
      */
+    @Nullable
     private final ResolvableType componentType;
 
+    @Nullable
     private final Integer hash;
 
+    @Nullable
     private Class<?> resolved;
 
+    /**
+     * 父类型、接口、泛型参数和所有祖先类型的解析表，首次使用时计算
+     */
+    @Nullable
+    private transient volatile ResolutionTable resolution;
+
 
     /**
      * 私有化构造器 目的是创建一个无需缓存ResolveType对象
@@ -68,10 +132,51 @@ public class ResolvableType implements Serializable {
         this.resolved = resolveClass();
     }
 
+    /**
+     * 私有化构造器 目的是创建放入缓存的ResolvableType对象，预先计算哈希值，
+     * 使命中缓存后的比较不再调用底层类型的{@code hashCode()}（JDK的泛型类型每次都会复制数组）
+     * @param type
+     * @param typeProvider
+     * @param variableResolver
+     */
+    private ResolvableType(Type type, @Nullable SerializableTypeWrapper.TypeProvider typeProvider,
+                           @Nullable VariableResolver variableResolver) {
+
+        this.type = type;
+        this.typeProvider = typeProvider;
+        this.variableResolver = variableResolver;
+        this.componentType = null;
+        this.hash = calculateHashCode();
+        this.resolved = resolveClass();
+    }
+
+
+    /**
+     * 返回底层的java {@link Type}
+     */
+    public Type getType() {
+        return SerializableTypeWrapper.unwrap(this.type);
+    }
+
+    /**
+     * 将此类型解析为{@link Class}，如果无法解析则返回{@code null}
+     */
+    @Nullable
+    public Class<?> resolve() {
+        return this.resolved;
+    }
+
+    /**
+     * 将此类型解析为{@link Class}，如果无法解析则返回指定的{@code fallback}
+     */
+    public Class<?> resolve(Class<?> fallback) {
+        return (this.resolved != null ? this.resolved : fallback);
+    }
 
     /**
      * 解析类
      */
+    @Nullable
     private Class<?> resolveClass() {
         if (this.type == EmptyType.INSTANCE) {
             return null;
@@ -87,6 +192,17 @@ public class ResolvableType implements Serializable {
     }
 
 
+    /**
+     * 是否是数组类型
+     */
+    public boolean isArray() {
+        if (this == NONE) {
+            return false;
+        }
+        return ((this.type instanceof Class && ((Class<?>) this.type).isArray()) ||
+                this.type instanceof GenericArrayType || resolveType().isArray());
+    }
+
     /**
      * 获取组件类型
      */
@@ -108,14 +224,401 @@ public class ResolvableType implements Serializable {
     }
 
 
+    /**
+     * 将此类型解析为{@link Class}，无法解析时返回{@code Object.class}
+     */
+    public Class<?> toClass() {
+        return resolve(Object.class);
+    }
+
+    /**
+     * 判断指定的类能否赋值给此类型
+     * @see #isAssignableFrom(ResolvableType)
+     */
+    public boolean isAssignableFrom(Class<?> other) {
+        return isAssignableFrom(forClass(other));
+    }
+
+    /**
+     * 判断指定的类型能否赋值给此类型，会检查泛型参数和通配符边界
+     * <p>原始类不可赋值或不含泛型参数时直接由原始类得出结果，
+     * 其余情况的结果按(目标类型, 来源类型)缓存，包括否定结果
+     */
+    public boolean isAssignableFrom(ResolvableType other) {
+        Assert.notNull(other, "ResolvableType must not be null");
+        if (this == NONE || other == NONE) {
+            return false;
+        }
+        // 原始类快速路径，仅适用于非数组类型；来源为类或参数化类型时不会解析出通配符边界，
+        // 直接按类型判断，不为此构建边界
+        if ((this.type instanceof Class || this.type instanceof ParameterizedType) && this.resolved != null &&
+                !this.resolved.isArray() && (other.type instanceof Class || other.type instanceof ParameterizedType)) {
+            if (!ClassUtils.isAssignable(this.resolved, other.toClass())) {
+                return false;
+            }
+            if (!hasGenerics()) {
+                return true;
+            }
+        }
+        AssignabilityKey lookupKey = assignabilityLookupKeys.get().set(this, other);
+        Boolean assignable;
+        try {
+            assignable = assignabilityCache.get(lookupKey);
+        }
+        finally {
+            lookupKey.clear();
+        }
+        if (assignable == null) {
+            assignable = isAssignableFrom(other, null);
+            assignabilityCache.put(new AssignabilityKey().set(this, other), assignable);
+        }
+        return assignable;
+    }
+
+    private boolean isAssignableFrom(ResolvableType other, @Nullable Map<Type, Type> matchedBefore) {
+        if (this == NONE || other == NONE) {
+            return false;
+        }
+
+        // 数组比较组件类型
+        if (isArray()) {
+            return (other.isArray() && getComponentType().isAssignableFrom(other.getComponentType()));
+        }
+
+        if (matchedBefore != null && matchedBefore.get(this.type) == other.type) {
+            return true;
+        }
+
+        // 通配符边界
+        WildcardBounds ourBounds = WildcardBounds.get(this);
+        WildcardBounds typeBounds = WildcardBounds.get(other);
+        if (typeBounds != null) {
+            return (ourBounds != null && ourBounds.isSameKind(typeBounds) &&
+                    ourBounds.isAssignableFrom(typeBounds.getBounds()));
+        }
+        if (ourBounds != null) {
+            return ourBounds.isAssignableFrom(other);
+        }
+
+        // 嵌套泛型参数要求原始类完全一致
+        boolean exactMatch = (matchedBefore != null);
+        boolean checkGenerics = true;
+        Class<?> ourResolved = null;
+        if (this.type instanceof TypeVariable) {
+            TypeVariable<?> variable = (TypeVariable<?>) this.type;
+            if (this.variableResolver != null) {
+                ResolvableType resolved = this.variableResolver.resolvableType(variable);
+                if (resolved != null) {
+                    ourResolved = resolved.resolve();
+                }
+            }
+            if (ourResolved == null && other.variableResolver != null) {
+                ResolvableType resolved = other.variableResolver.resolvableType(variable);
+                if (resolved != null) {
+                    ourResolved = resolved.resolve();
+                    checkGenerics = false;
+                }
+            }
+            if (ourResolved == null) {
+                exactMatch = false;
+            }
+        }
+        if (ourResolved == null) {
+            ourResolved = toClass();
+        }
+        Class<?> otherResolved = other.toClass();
+        if (exactMatch ? !ourResolved.equals(otherResolved) : !ClassUtils.isAssignable(ourResolved, otherResolved)) {
+            return false;
+        }
+
+        if (checkGenerics) {
+            ResolvableType[] ourGenerics = getGenerics();
+            ResolvableType[] typeGenerics = other.as(ourResolved).getGenerics();
+            if (ourGenerics.length != typeGenerics.length) {
+                return false;
+            }
+            if (matchedBefore == null) {
+                matchedBefore = new IdentityHashMap<>(1);
+            }
+            matchedBefore.put(this.type, other.type);
+            for (int i = 0; i < ourGenerics.length; i++) {
+                if (!ourGenerics[i].isAssignableFrom(typeGenerics[i], matchedBefore)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 返回父类型的{@link ResolvableType}，没有父类型时返回{@link #NONE}
+     */
+    public ResolvableType getSuperType() {
+        return getResolution().superType;
+    }
+
+    /**
+     * 返回直接实现的接口，没有时返回空数组
+     * <p>返回的数组是共享的，不能修改
+     */
+    public ResolvableType[] getInterfaces() {
+        return getResolution().interfaces;
+    }
+
+    /**
+     * 是否包含泛型参数
+     */
+    public boolean hasGenerics() {
+        return (getGenerics().length > 0);
+    }
+
+    /**
+     * 返回泛型参数，没有时返回空数组
+     * <p>返回的数组是共享的，不能修改
+     */
+    public ResolvableType[] getGenerics() {
+        return getResolution().generics;
+    }
+
+    /**
+     * 按索引逐级获取泛型参数，索引越界时返回{@link #NONE}，未指定索引时返回第一个泛型参数
+     * @param indexes 每一级泛型参数的索引
+     */
+    public ResolvableType getGeneric(@Nullable int... indexes) {
+        ResolvableType[] generics = getGenerics();
+        if (indexes == null || indexes.length == 0) {
+            return (generics.length == 0 ? NONE : generics[0]);
+        }
+        ResolvableType generic = this;
+        for (int index : indexes) {
+            generics = generic.getGenerics();
+            if (index < 0 || index >= generics.length) {
+                return NONE;
+            }
+            generic = generics[index];
+        }
+        return generic;
+    }
+
+    /**
+     * 将泛型参数解析为{@link Class}，无法解析的位置为{@code null}
+     */
+    public Class<?>[] resolveGenerics() {
+        return getResolution().resolvedGenerics.clone();
+    }
+
+    /**
+     * 将指定索引的泛型参数解析为{@link Class}
+     */
+    @Nullable
+    public Class<?> resolveGeneric(int... indexes) {
+        return getGeneric(indexes).resolve();
+    }
+
+    /**
+     * 将此类型作为指定类的{@link ResolvableType}返回，依次查找接口和父类，
+     * 不是该类的子类型时返回{@link #NONE}
+     * <p>查找顺序和逐级递归相同：先是自身，然后按声明顺序是各个接口，最后是父类
+     */
+    public ResolvableType as(Class<?> type) {
+        if (this == NONE) {
+            return NONE;
+        }
+        if (this.resolved == null) {
+            return this;
+        }
+        ResolutionTable resolution = getResolution();
+        Class<?>[] ancestorClasses = resolution.ancestorClasses;
+        for (int i = 0; i < ancestorClasses.length; i++) {
+            if (ancestorClasses[i] == type) {
+                return resolution.ancestorTypes[i];
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * 返回解析表，以{@link Class}为类型时使用该类共享的解析表
+     */
+    private ResolutionTable getResolution() {
+        ResolutionTable resolution = this.resolution;
+        if (resolution == null) {
+            if (this.type instanceof Class) {
+                Class<?> clazz = (Class<?>) this.type;
+                resolution = classResolutions.get(clazz);
+                if (resolution == null) {
+                    resolution = forClass(clazz).buildResolution();
+                    ResolutionTable existing = classResolutions.putIfAbsent(clazz, resolution);
+                    if (existing != null) {
+                        resolution = existing;
+                    }
+                }
+            }
+            else {
+                resolution = buildResolution();
+            }
+            this.resolution = resolution;
+        }
+        return resolution;
+    }
+
+    /**
+     * 计算解析表，只访问自身字段和直接父类型、接口的解析表
+     */
+    private ResolutionTable buildResolution() {
+        if (this == NONE) {
+            return ResolutionTable.EMPTY;
+        }
+        ResolvableType superType = NONE;
+        ResolvableType[] interfaces = EMPTY_TYPES_ARRAY;
+        Class<?> resolved = this.resolved;
+        if (resolved != null) {
+            VariableResolver ownerResolver = asVariableResolver();
+            Type superclass = SerializableTypeWrapper.forGenericSuperclass(resolved);
+            if (superclass != null) {
+                superType = forType(superclass, ownerResolver);
+            }
+            Type[] genericInterfaces = SerializableTypeWrapper.forGenericInterfaces(resolved);
+            if (genericInterfaces.length > 0) {
+                interfaces = new ResolvableType[genericInterfaces.length];
+                for (int i = 0; i < genericInterfaces.length; i++) {
+                    interfaces[i] = forType(genericInterfaces[i], ownerResolver);
+                }
+            }
+        }
+
+        ResolvableType[] generics;
+        if (this.type instanceof Class) {
+            Type[] typeParameters = SerializableTypeWrapper.forTypeParameters((Class<?>) this.type);
+            generics = (typeParameters.length > 0 ? new ResolvableType[typeParameters.length] : EMPTY_TYPES_ARRAY);
+            VariableResolver ownerResolver = (typeParameters.length > 0 ? asVariableResolver() : null);
+            for (int i = 0; i < typeParameters.length; i++) {
+                generics[i] = forType(typeParameters[i], ownerResolver);
+            }
+        }
+        else if (this.type instanceof ParameterizedType) {
+            Type[] actualTypeArguments = ((ParameterizedType) this.type).getActualTypeArguments();
+            generics = new ResolvableType[actualTypeArguments.length];
+            for (int i = 0; i < actualTypeArguments.length; i++) {
+                generics[i] = forType(actualTypeArguments[i], this.variableResolver);
+            }
+        }
+        else {
+            generics = resolveType().getGenerics();
+        }
+
+        // 祖先按 as(Class) 逐级查找的顺序展开：自身、各接口的祖先、父类的祖先，同一个类只保留首次出现
+        Map<Class<?>, ResolvableType> ancestors = new LinkedHashMap<>();
+        if (resolved != null) {
+            ancestors.put(resolved, this);
+            for (ResolvableType interfaceType : interfaces) {
+                interfaceType.getResolution().addAncestorsTo(ancestors);
+            }
+            superType.getResolution().addAncestorsTo(ancestors);
+        }
+        return new ResolutionTable(superType, interfaces, generics, ancestors);
+    }
+
+    /**
+     * 为指定的{@link Class}返回一个{@link ResolvableType}，使用完整的泛型类型信息进行可分配性检查
+     */
+    public static ResolvableType forClass(@Nullable Class<?> clazz) {
+        return new ResolvableType(clazz != null ? clazz : Object.class, null, null, null);
+    }
+
+    /**
+     * 为指定的{@link Field}返回一个{@link ResolvableType}
+     * <p>泛型字段命中缓存时直接返回规范实例，不创建类型提供者和变量解析器
+     */
     public static ResolvableType forField(Field field) {
         Assert.notNull(field, "Field must not be null");
-        return forType(nu);
+        Class<?> owner = field.getDeclaringClass();
+        ResolvableType cached = getCached(field.getGenericType(), owner);
+        if (cached != null) {
+            return cached;
+        }
+        return forType(null, new SerializableTypeWrapper.FieldTypeProvider(field), forClass(owner).asVariableResolver());
     }
 
+    /**
+     * 为指定的{@link MethodParameter}返回一个{@link ResolvableType}
+     * <p>泛型参数命中缓存时直接返回规范实例，不创建类型提供者和变量解析器
+     */
+    public static ResolvableType forMethodParameter(MethodParameter methodParameter) {
+        Assert.notNull(methodParameter, "MethodParameter must not be null");
+        Class<?> owner = methodParameter.getContainingClass();
+        ResolvableType cached = getCached(methodParameter.getGenericParameterType(), owner);
+        if (cached != null) {
+            return cached;
+        }
+        return forType(null, new SerializableTypeWrapper.MethodParameterTypeProvider(methodParameter),
+                forClass(owner).asVariableResolver());
+    }
+
+    /**
+     * 按以{@code owner}类为变量解析来源的泛型类型查找规范实例，{@link Class}类型不做缓存
+     */
     @Nullable
-    private ResolvableType resolveVariable(TypeVariable<?> variable) {
+    private static ResolvableType getCached(Type type, Class<?> owner) {
+        if (type instanceof Class) {
+            return null;
+        }
+        CacheKey lookupKey = lookupKeys.get().set(type, owner, null);
+        try {
+            return cache.get(lookupKey);
+        }
+        finally {
+            lookupKey.clear();
+        }
+    }
+
+    /**
+     * 将此类型适配为{@link VariableResolver}
+     */
+    @Nullable
+    VariableResolver asVariableResolver() {
+        if (this == NONE) {
+            return null;
+        }
+        return new DefaultVariableResolver();
+    }
 
+    /**
+     * 在当前类型中解析给定的类型变量，无法解析时返回{@code null}
+     */
+    @Nullable
+    private ResolvableType resolveVariable(TypeVariable<?> variable) {
+        if (this.type instanceof TypeVariable) {
+            return resolveType().resolveVariable(variable);
+        }
+        if (this.type instanceof ParameterizedType) {
+            ParameterizedType parameterizedType = (ParameterizedType) this.type;
+            Class<?> resolved = resolve();
+            if (resolved == null) {
+                return null;
+            }
+            TypeVariable<?>[] variables = resolved.getTypeParameters();
+            for (int i = 0; i < variables.length; i++) {
+                if (ObjectUtils.nullSafeEquals(variables[i].getName(), variable.getName())) {
+                    Type actualType = parameterizedType.getActualTypeArguments()[i];
+                    return forType(actualType, this.variableResolver);
+                }
+            }
+            Type ownerType = parameterizedType.getOwnerType();
+            if (ownerType != null) {
+                return forType(ownerType, this.variableResolver).resolveVariable(variable);
+            }
+        }
+        if (this.type instanceof WildcardType) {
+            ResolvableType resolved = resolveType().resolveVariable(variable);
+            if (resolved != null) {
+                return resolved;
+            }
+        }
+        if (this.variableResolver != null) {
+            return this.variableResolver.resolvableType(variable);
+        }
+        return null;
     }
 
     /**
@@ -123,15 +626,45 @@ public class ResolvableType implements Serializable {
      * <p>注意:返回的{@link ResolvableType}只能用作中介
      * 因为它不能序列化。
      */
-    ResolvableType resolvableType() {
-        //
+    ResolvableType resolveType() {
+        // 参数化类型解析为原始类型
         if (this.type instanceof ParameterizedType) {
+            return forType(((ParameterizedType) this.type).getRawType(), this.variableResolver);
+        }
+        // 通配符优先使用上界，其次使用下界
+        if (this.type instanceof WildcardType) {
+            Type resolved = resolveBounds(((WildcardType) this.type).getUpperBounds());
+            if (resolved == null) {
+                resolved = resolveBounds(((WildcardType) this.type).getLowerBounds());
+            }
+            return forType(resolved, this.variableResolver);
+        }
+        // 类型变量先交给变量解析器，否则使用其边界
+        if (this.type instanceof TypeVariable) {
+            TypeVariable<?> variable = (TypeVariable<?>) this.type;
+            if (this.variableResolver != null) {
+                ResolvableType resolved = this.variableResolver.resolvableType(variable);
+                if (resolved != null) {
+                    return resolved;
+                }
+            }
+            return forType(resolveBounds(variable.getBounds()), this.variableResolver);
+        }
+        return NONE;
+    }
 
+    @Nullable
+    private Type resolveBounds(Type[] bounds) {
+        if (bounds.length == 0 || bounds[0] == Object.class) {
+            return null;
         }
+        return bounds[0];
     }
 
     /**
      * 为指定的{@link Type}返回一个{@link ResolvableType}
+     * <p>泛型类型按底层类型、变量解析来源和组件类型组成的结构键查找规范实例，
+     * 命中时返回同一个实例
      */
     static ResolvableType forType(@Nullable Type type, @Nullable TypeProvider typeProvider, @Nullable VariableResolver variableResolver) {
 
@@ -150,12 +683,421 @@ public class ResolvableType implements Serializable {
             return new ResolvableType(type, typeProvider, variableResolver, null);
         }
 
+        // 用线程复用的查询键检查缓存，命中时不产生分配
+        Object source = CacheKey.getSource(variableResolver);
+        CacheKey lookupKey = lookupKeys.get().set(type, source, null);
+        ResolvableType cachedType;
+        try {
+            cachedType = cache.get(lookupKey);
+        }
+        finally {
+            lookupKey.clear();
+        }
+        if (cachedType == null) {
+            ResolvableType resultType = new ResolvableType(type, typeProvider, variableResolver);
+            cachedType = cache.putIfAbsent(new CacheKey().set(type, source, null), resultType);
+            if (cachedType == null) {
+                cachedType = resultType;
+            }
+        }
+        return cachedType;
     }
 
     static ResolvableType forType(@Nullable Type type, @Nullable VariableResolver variableResolver) {
         return forType(type, null, variableResolver);
     }
 
+    /**
+     * 移除引用了指定类加载器（或其子加载器）所加载类的缓存条目，包括类型包装缓存，在卸载该类加载器前调用
+     * @param classLoader 即将卸载的类加载器
+     */
+    public static void clearCache(ClassLoader classLoader) {
+        Assert.notNull(classLoader, "ClassLoader must not be null");
+        classResolutions.keySet().removeIf(clazz -> ClassUtils.isLoadedBy(clazz, classLoader));
+        cache.values().removeIf(type -> type.isLoadedBy(classLoader));
+        assignabilityCache.keySet().removeIf(key -> (key.target != null && key.target.isLoadedBy(classLoader)) ||
+                (key.source != null && key.source.isLoadedBy(classLoader)));
+        SerializableTypeWrapper.clearCache(classLoader);
+    }
+
+    /**
+     * 此类型是否引用了指定类加载器所加载的类，包括泛型参数、通配符边界、组件类型、
+     * 类型提供方和变量解析来源
+     */
+    private boolean isLoadedBy(ClassLoader classLoader) {
+        if (this.resolved != null && ClassUtils.isLoadedBy(this.resolved, classLoader)) {
+            return true;
+        }
+        if (SerializableTypeWrapper.isLoadedBy(this.type, classLoader) ||
+                (this.typeProvider != null && SerializableTypeWrapper.isLoadedBy(this.typeProvider, classLoader)) ||
+                (this.componentType != null && this.componentType.isLoadedBy(classLoader))) {
+            return true;
+        }
+        Object source = CacheKey.getSource(this.variableResolver);
+        if (source instanceof Class) {
+            return ClassUtils.isLoadedBy((Class<?>) source, classLoader);
+        }
+        return (source instanceof ResolvableType && ((ResolvableType) source).isLoadedBy(classLoader));
+    }
+
+    /**
+     * 返回可分配性缓存的统计信息，用于调优缓存
+     */
+    public static ConcurrentReferenceHashMap.Statistics getAssignabilityCacheStatistics() {
+        return assignabilityCache.getStatistics();
+    }
+
+    /**
+     * 返回ResolvableType缓存的统计信息，用于调优缓存
+     */
+    public static ConcurrentReferenceHashMap.Statistics getCacheStatistics() {
+        return cache.getStatistics();
+    }
+
+    /**
+     * 返回SerializableTypeWrapper缓存的统计信息，用于调优缓存
+     */
+    public static ConcurrentReferenceHashMap.Statistics getTypeWrapperCacheStatistics() {
+        return SerializableTypeWrapper.getCacheStatistics();
+    }
+
+    /**
+     * 返回SerializableTypeWrapper到目前为止创建的类型包装数量
+     */
+    public static long getTypeWrapperCreationCount() {
+        return SerializableTypeWrapper.getWrapperCreationCount();
+    }
+
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ResolvableType)) {
+            return false;
+        }
+        ResolvableType otherType = (ResolvableType) other;
+        if (!ObjectUtils.nullSafeEquals(this.type, otherType.type)) {
+            return false;
+        }
+        if (this.typeProvider != otherType.typeProvider &&
+                (this.typeProvider == null || otherType.typeProvider == null ||
+                !ObjectUtils.nullSafeEquals(this.typeProvider.getType(), otherType.typeProvider.getType()))) {
+            return false;
+        }
+        if (this.variableResolver != otherType.variableResolver &&
+                (this.variableResolver == null || otherType.variableResolver == null ||
+                !ObjectUtils.nullSafeEquals(this.variableResolver.getSource(), otherType.variableResolver.getSource()))) {
+            return false;
+        }
+        return ObjectUtils.nullSafeEquals(this.componentType, otherType.componentType);
+    }
+
+    @Override
+    public int hashCode() {
+        return (this.hash != null ? this.hash : calculateHashCode());
+    }
+
+    private int calculateHashCode() {
+        int hashCode = ObjectUtils.nullSafeHashCode(this.type);
+        if (this.typeProvider != null) {
+            hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode(this.typeProvider.getType());
+        }
+        if (this.variableResolver != null) {
+            hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode(this.variableResolver.getSource());
+        }
+        if (this.componentType != null) {
+            hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode(this.componentType);
+        }
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        if (this == NONE) {
+            return "?";
+        }
+        if (this.type instanceof TypeVariable) {
+            TypeVariable<?> variable = (TypeVariable<?>) this.type;
+            if (this.variableResolver == null || this.variableResolver.resolvableType(variable) == null) {
+                return "?";
+            }
+        }
+        if (isArray()) {
+            return getComponentType() + "[]";
+        }
+        if (this.resolved == null) {
+            return "?";
+        }
+        if (hasGenerics()) {
+            StringBuilder builder = new StringBuilder(this.resolved.getName()).append('<');
+            ResolvableType[] generics = getGenerics();
+            for (int i = 0; i < generics.length; i++) {
+                if (i > 0) {
+                    builder.append(", ");
+                }
+                builder.append(generics[i]);
+            }
+            return builder.append('>').toString();
+        }
+        return this.resolved.getName();
+    }
+
+
+    /**
+     * 预先计算的解析表：父类型、接口、泛型参数及其解析结果，
+     * 以及以数组保存的祖先类型，使{@link #as(Class)}成为一次数组查找
+     */
+    private static final class ResolutionTable {
+
+        static final ResolutionTable EMPTY = new ResolutionTable(
+                NONE, EMPTY_TYPES_ARRAY, EMPTY_TYPES_ARRAY, Collections.<Class<?>, ResolvableType>emptyMap());
+
+        final ResolvableType superType;
+
+        final ResolvableType[] interfaces;
+
+        final ResolvableType[] generics;
+
+        final Class<?>[] resolvedGenerics;
+
+        final Class<?>[] ancestorClasses;
+
+        final ResolvableType[] ancestorTypes;
+
+        ResolutionTable(ResolvableType superType, ResolvableType[] interfaces, ResolvableType[] generics,
+                        Map<Class<?>, ResolvableType> ancestors) {
+
+            this.superType = superType;
+            this.interfaces = interfaces;
+            this.generics = generics;
+            this.resolvedGenerics = new Class<?>[generics.length];
+            for (int i = 0; i < generics.length; i++) {
+                this.resolvedGenerics[i] = generics[i].resolve();
+            }
+            this.ancestorClasses = new Class<?>[ancestors.size()];
+            this.ancestorTypes = new ResolvableType[ancestors.size()];
+            int i = 0;
+            for (Map.Entry<Class<?>, ResolvableType> entry : ancestors.entrySet()) {
+                this.ancestorClasses[i] = entry.getKey();
+                this.ancestorTypes[i] = entry.getValue();
+                i++;
+            }
+        }
+
+        void addAncestorsTo(Map<Class<?>, ResolvableType> ancestors) {
+            for (int i = 0; i < this.ancestorClasses.length; i++) {
+                ancestors.putIfAbsent(this.ancestorClasses[i], this.ancestorTypes[i]);
+            }
+        }
+    }
+
+
+    /**
+     * 可分配性缓存键：目标类型和来源类型
+     * <p>查询时使用每个线程复用的实例，只有未命中后写入缓存时才新建实例
+     */
+    private static final class AssignabilityKey {
+
+        @Nullable
+        ResolvableType target;
+
+        @Nullable
+        ResolvableType source;
+
+        private int hash;
+
+        AssignabilityKey set(ResolvableType target, ResolvableType source) {
+            this.target = target;
+            this.source = source;
+            this.hash = 31 * target.hashCode() + source.hashCode();
+            return this;
+        }
+
+        /**
+         * 释放引用，避免线程复用的查询键阻止类型被回收
+         */
+        void clear() {
+            this.target = null;
+            this.source = null;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof AssignabilityKey)) {
+                return false;
+            }
+            AssignabilityKey otherKey = (AssignabilityKey) other;
+            return (this.hash == otherKey.hash && ObjectUtils.nullSafeEquals(this.target, otherKey.target) &&
+                    ObjectUtils.nullSafeEquals(this.source, otherKey.source));
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+
+    /**
+     * 通配符的上界或下界
+     */
+    private static class WildcardBounds {
+
+        private final Kind kind;
+
+        private final ResolvableType[] bounds;
+
+        WildcardBounds(Kind kind, ResolvableType[] bounds) {
+            this.kind = kind;
+            this.bounds = bounds;
+        }
+
+        boolean isSameKind(WildcardBounds bounds) {
+            return (this.kind == bounds.kind);
+        }
+
+        /**
+         * 给定的类型是否都在边界内
+         */
+        boolean isAssignableFrom(ResolvableType... types) {
+            for (ResolvableType bound : this.bounds) {
+                for (ResolvableType type : types) {
+                    if (!isAssignable(bound, type)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private boolean isAssignable(ResolvableType source, ResolvableType from) {
+            return (this.kind == Kind.UPPER ? source.isAssignableFrom(from) : from.isAssignableFrom(source));
+        }
+
+        ResolvableType[] getBounds() {
+            return this.bounds;
+        }
+
+        /**
+         * 返回给定类型的通配符边界，不能解析为通配符时返回{@code null}
+         */
+        @Nullable
+        static WildcardBounds get(ResolvableType type) {
+            ResolvableType resolveToWildcard = type;
+            while (!(resolveToWildcard.getType() instanceof WildcardType)) {
+                if (resolveToWildcard == NONE) {
+                    return null;
+                }
+                resolveToWildcard = resolveToWildcard.resolveType();
+            }
+            WildcardType wildcardType = (WildcardType) resolveToWildcard.getType();
+            Kind kind = (wildcardType.getLowerBounds().length > 0 ? Kind.LOWER : Kind.UPPER);
+            Type[] bounds = (kind == Kind.UPPER ? wildcardType.getUpperBounds() : wildcardType.getLowerBounds());
+            ResolvableType[] resolvableBounds = new ResolvableType[bounds.length];
+            for (int i = 0; i < bounds.length; i++) {
+                resolvableBounds[i] = forType(bounds[i], type.variableResolver);
+            }
+            return new WildcardBounds(kind, resolvableBounds);
+        }
+
+        enum Kind {UPPER, LOWER}
+    }
+
+
+    /**
+     * 缓存键：底层类型、变量解析来源和组件类型
+     * <p>查询时使用每个线程复用的实例，只有未命中后写入缓存时才新建实例。
+     * 仅以简单类为来源的变量解析器直接用该类作为来源，
+     * 这样 {@link #forField} 等入口无需先创建解析器即可查询
+     */
+    private static final class CacheKey {
+
+        @Nullable
+        private Type type;
+
+        @Nullable
+        private Object source;
+
+        @Nullable
+        private ResolvableType componentType;
+
+        private int hash;
+
+        CacheKey set(Type type, @Nullable Object source, @Nullable ResolvableType componentType) {
+            Type unwrapped = SerializableTypeWrapper.unwrap(type);
+            int hash = unwrapped.hashCode();
+            if (source != null) {
+                hash = 31 * hash + source.hashCode();
+            }
+            if (componentType != null) {
+                hash = 31 * hash + componentType.hashCode();
+            }
+            this.type = unwrapped;
+            this.source = source;
+            this.componentType = componentType;
+            this.hash = hash;
+            return this;
+        }
+
+        /**
+         * 释放引用，避免线程复用的查询键阻止类型被回收
+         */
+        void clear() {
+            this.type = null;
+            this.source = null;
+            this.componentType = null;
+        }
+
+        @Nullable
+        static Object getSource(@Nullable VariableResolver variableResolver) {
+            if (variableResolver == null) {
+                return null;
+            }
+            Object source = variableResolver.getSource();
+            if (source instanceof ResolvableType) {
+                ResolvableType sourceType = (ResolvableType) source;
+                if (sourceType.type instanceof Class && sourceType.typeProvider == null &&
+                        sourceType.variableResolver == null && sourceType.componentType == null) {
+                    return sourceType.type;
+                }
+            }
+            return source;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey otherKey = (CacheKey) other;
+            return (this.hash == otherKey.hash &&
+                    ObjectUtils.nullSafeEquals(this.type, otherKey.type) &&
+                    ObjectUtils.nullSafeEquals(this.source, otherKey.source) &&
+                    ObjectUtils.nullSafeEquals(this.componentType, otherKey.componentType));
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+
+    /**
+     * 以紧凑的{@link SerializedForm}代替默认的序列化
+     */
+    private Object writeReplace() {
+        return new SerializedForm(this);
+    }
+
 
     /**
      * 用来解析 TypeVariables 的策略接口
@@ -194,6 +1136,357 @@ public class ResolvableType implements Serializable {
     }
 
 
+    /**
+     * ResolvableType 的紧凑序列化形式
+     * <p>类型按来源编码：字段、方法参数、类声明中的父类/接口/类型参数，以及在这些类型上调用的类型方法，
+     * 变量解析器按其来源类型递归编码。类名和成员名写入一张字符串表，同一名称在一次序列化中只写一次。
+     * 反序列化时按来源重新取得反射对象，再经由 {@link #forType} 返回缓存中的规范实例
+     */
+    private static final class SerializedForm implements Externalizable {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int NONE_TAG = 0;
+
+        private static final int CLASS_TAG = 1;
+
+        private static final int PROVIDER_TAG = 2;
+
+        private static final int WRAPPED_TAG = 3;
+
+        private static final int OBJECT_TAG = 4;
+
+        private static final int FIELD_PROVIDER = 0;
+
+        private static final int METHOD_PARAMETER_PROVIDER = 1;
+
+        private static final int METHOD_INVOKE_PROVIDER = 2;
+
+        private static final int DECLARED_PROVIDER = 3;
+
+        private static final int OBJECT_PROVIDER = 4;
+
+        private static final int NO_RESOLVER = 0;
+
+        private static final int DEFAULT_RESOLVER = 1;
+
+        private static final int OBJECT_RESOLVER = 2;
+
+        private static final String CONSTRUCTOR_NAME = "<init>";
+
+        private static final Map<String, Class<?>> primitiveTypes = new LinkedHashMap<>(16);
+
+        static {
+            for (Class<?> primitiveType : new Class<?>[] {boolean.class, byte.class, char.class, double.class,
+                    float.class, int.class, long.class, short.class, void.class}) {
+                primitiveTypes.put(primitiveType.getName(), primitiveType);
+            }
+        }
+
+        @Nullable
+        private ResolvableType type;
+
+        /**
+         * 供反序列化使用
+         */
+        public SerializedForm() {
+        }
+
+        SerializedForm(ResolvableType type) {
+            this.type = type;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            new Encoder(out).writeType(this.type);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+            this.type = new Decoder(in).readType();
+        }
+
+        private Object readResolve() {
+            return this.type;
+        }
+
+
+        /**
+         * 编码一个类型图，名称表只在本次编码内有效
+         */
+        private static final class Encoder {
+
+            private final ObjectOutput out;
+
+            private final Map<String, Integer> names = new HashMap<>();
+
+            Encoder(ObjectOutput out) {
+                this.out = out;
+            }
+
+            void writeType(ResolvableType type) throws IOException {
+                if (type == NONE) {
+                    this.out.writeByte(NONE_TAG);
+                    return;
+                }
+                if (type.typeProvider != null) {
+                    this.out.writeByte(PROVIDER_TAG);
+                    writeProvider(type.typeProvider);
+                }
+                else if (type.type instanceof Class) {
+                    this.out.writeByte(CLASS_TAG);
+                    writeClass((Class<?>) type.type);
+                }
+                else if (type.type instanceof SerializableTypeWrapper.SerializableTypeProxy) {
+                    this.out.writeByte(WRAPPED_TAG);
+                    writeProvider(((SerializableTypeWrapper.SerializableTypeProxy) type.type).getTypeProvider());
+                }
+                else {
+                    this.out.writeByte(OBJECT_TAG);
+                    this.out.writeObject(type.type);
+                }
+                writeResolver(type.variableResolver);
+            }
+
+            private void writeProvider(TypeProvider provider) throws IOException {
+                if (provider instanceof SerializableTypeWrapper.FieldTypeProvider) {
+                    Field field = (Field) provider.getSource();
+                    this.out.writeByte(FIELD_PROVIDER);
+                    writeClass(field.getDeclaringClass());
+                    writeName(field.getName());
+                }
+                else if (provider instanceof SerializableTypeWrapper.MethodParameterTypeProvider) {
+                    MethodParameter methodParameter = (MethodParameter) provider.getSource();
+                    Executable executable = methodParameter.getExecutable();
+                    this.out.writeByte(METHOD_PARAMETER_PROVIDER);
+                    writeClass(executable.getDeclaringClass());
+                    writeName(executable instanceof Constructor ? CONSTRUCTOR_NAME : executable.getName());
+                    Class<?>[] parameterTypes = executable.getParameterTypes();
+                    writeVarInt(parameterTypes.length);
+                    for (Class<?> parameterType : parameterTypes) {
+                        writeClass(parameterType);
+                    }
+                    writeVarInt(methodParameter.getParameterIndex() + 1);
+                }
+                else if (provider instanceof SerializableTypeWrapper.MethodInvokeTypeProvider) {
+                    SerializableTypeWrapper.MethodInvokeTypeProvider invokeProvider =
+                            (SerializableTypeWrapper.MethodInvokeTypeProvider) provider;
+                    this.out.writeByte(METHOD_INVOKE_PROVIDER);
+                    writeProvider(invokeProvider.getProvider());
+                    writeClass(invokeProvider.getMethod().getDeclaringClass());
+                    writeName(invokeProvider.getMethod().getName());
+                    writeVarInt(invokeProvider.getIndex() + 1);
+                }
+                else if (provider instanceof SerializableTypeWrapper.DeclaredTypeProvider) {
+                    SerializableTypeWrapper.DeclaredTypeProvider declaredProvider =
+                            (SerializableTypeWrapper.DeclaredTypeProvider) provider;
+                    this.out.writeByte(DECLARED_PROVIDER);
+                    writeClass((Class<?>) declaredProvider.getSource());
+                    this.out.writeByte(declaredProvider.getKind());
+                    writeVarInt(declaredProvider.getIndex() + 1);
+                }
+                else {
+                    this.out.writeByte(OBJECT_PROVIDER);
+                    this.out.writeObject(provider);
+                }
+            }
+
+            private void writeResolver(@Nullable VariableResolver variableResolver) throws IOException {
+                if (variableResolver == null) {
+                    this.out.writeByte(NO_RESOLVER);
+                }
+                else if (variableResolver instanceof DefaultVariableResolver) {
+                    this.out.writeByte(DEFAULT_RESOLVER);
+                    writeType((ResolvableType) variableResolver.getSource());
+                }
+                else {
+                    this.out.writeByte(OBJECT_RESOLVER);
+                    this.out.writeObject(variableResolver);
+                }
+            }
+
+            private void writeClass(Class<?> clazz) throws IOException {
+                writeName(clazz.getName());
+            }
+
+            /**
+             * 首次出现的名称写入{@code 0}和名称本身，之后只写入其在名称表中的序号
+             */
+            private void writeName(String name) throws IOException {
+                Integer index = this.names.get(name);
+                if (index != null) {
+                    writeVarInt(index);
+                }
+                else {
+                    writeVarInt(0);
+                    this.out.writeUTF(name);
+                    this.names.put(name, this.names.size() + 1);
+                }
+            }
+
+            private void writeVarInt(int value) throws IOException {
+                while ((value & ~0x7F) != 0) {
+                    this.out.writeByte((value & 0x7F) | 0x80);
+                    value >>>= 7;
+                }
+                this.out.writeByte(value);
+            }
+        }
+
+
+        /**
+         * 解码{@link Encoder}写入的类型图，已加载的类在本次解码内复用
+         */
+        private static final class Decoder {
+
+            private final ObjectInput in;
+
+            private final List<String> names = new ArrayList<>();
+
+            private final Map<String, Class<?>> classes = new HashMap<>();
+
+            Decoder(ObjectInput in) {
+                this.in = in;
+            }
+
+            ResolvableType readType() throws IOException, ClassNotFoundException {
+                int tag = this.in.readUnsignedByte();
+                switch (tag) {
+                    case NONE_TAG:
+                        return NONE;
+                    case CLASS_TAG: {
+                        Class<?> clazz = readClass();
+                        return forType(clazz, null, readResolver());
+                    }
+                    case PROVIDER_TAG: {
+                        TypeProvider provider = readProvider();
+                        return forType(null, provider, readResolver());
+                    }
+                    case WRAPPED_TAG: {
+                        Type type = SerializableTypeWrapper.forTypeProvider(readProvider());
+                        return forType(type, null, readResolver());
+                    }
+                    case OBJECT_TAG: {
+                        Type type = (Type) this.in.readObject();
+                        return forType(type, null, readResolver());
+                    }
+                    default:
+                        throw new StreamCorruptedException("Unknown ResolvableType tag: " + tag);
+                }
+            }
+
+            private TypeProvider readProvider() throws IOException, ClassNotFoundException {
+                int tag = this.in.readUnsignedByte();
+                try {
+                    switch (tag) {
+                        case FIELD_PROVIDER: {
+                            Class<?> declaringClass = readClass();
+                            return new SerializableTypeWrapper.FieldTypeProvider(declaringClass.getDeclaredField(readName()));
+                        }
+                        case METHOD_PARAMETER_PROVIDER: {
+                            Class<?> declaringClass = readClass();
+                            String name = readName();
+                            Class<?>[] parameterTypes = new Class<?>[readVarInt()];
+                            for (int i = 0; i < parameterTypes.length; i++) {
+                                parameterTypes[i] = readClass();
+                            }
+                            int parameterIndex = readVarInt() - 1;
+                            MethodParameter methodParameter = (CONSTRUCTOR_NAME.equals(name) ?
+                                    new MethodParameter(declaringClass.getDeclaredConstructor(parameterTypes), parameterIndex) :
+                                    new MethodParameter(declaringClass.getDeclaredMethod(name, parameterTypes), parameterIndex));
+                            return new SerializableTypeWrapper.MethodParameterTypeProvider(methodParameter);
+                        }
+                        case METHOD_INVOKE_PROVIDER: {
+                            TypeProvider provider = readProvider();
+                            Class<?> declaringClass = readClass();
+                            Method method = declaringClass.getMethod(readName());
+                            return new SerializableTypeWrapper.MethodInvokeTypeProvider(provider, method, readVarInt() - 1);
+                        }
+                        case DECLARED_PROVIDER: {
+                            Class<?> declaringClass = readClass();
+                            int kind = this.in.readUnsignedByte();
+                            return new SerializableTypeWrapper.DeclaredTypeProvider(declaringClass, kind, readVarInt() - 1);
+                        }
+                        case OBJECT_PROVIDER:
+                            return (TypeProvider) this.in.readObject();
+                        default:
+                            throw new StreamCorruptedException("Unknown TypeProvider tag: " + tag);
+                    }
+                }
+                catch (NoSuchFieldException | NoSuchMethodException ex) {
+                    throw new IllegalStateException("Could not find original class structure", ex);
+                }
+            }
+
+            @Nullable
+            private VariableResolver readResolver() throws IOException, ClassNotFoundException {
+                int tag = this.in.readUnsignedByte();
+                switch (tag) {
+                    case NO_RESOLVER:
+                        return null;
+                    case DEFAULT_RESOLVER:
+                        return readType().asVariableResolver();
+                    case OBJECT_RESOLVER:
+                        return (VariableResolver) this.in.readObject();
+                    default:
+                        throw new StreamCorruptedException("Unknown VariableResolver tag: " + tag);
+                }
+            }
+
+            private Class<?> readClass() throws IOException, ClassNotFoundException {
+                String name = readName();
+                Class<?> clazz = this.classes.get(name);
+                if (clazz == null) {
+                    clazz = primitiveTypes.get(name);
+                    if (clazz == null) {
+                        clazz = loadClass(name);
+                    }
+                    this.classes.put(name, clazz);
+                }
+                return clazz;
+            }
+
+            /**
+             * 优先使用线程上下文类加载器，找不到时使用加载ResolvableType的类加载器
+             */
+            private static Class<?> loadClass(String name) throws ClassNotFoundException {
+                ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+                if (classLoader != null) {
+                    try {
+                        return Class.forName(name, false, classLoader);
+                    }
+                    catch (ClassNotFoundException ex) {
+                        // 继续使用ResolvableType的类加载器
+                    }
+                }
+                return Class.forName(name, false, ResolvableType.class.getClassLoader());
+            }
+
+            private String readName() throws IOException {
+                int index = readVarInt();
+                if (index == 0) {
+                    String name = this.in.readUTF();
+                    this.names.add(name);
+                    return name;
+                }
+                return this.names.get(index - 1);
+            }
+
+            private int readVarInt() throws IOException {
+                int value = 0;
+                for (int shift = 0; shift < 32; shift += 7) {
+                    int b = this.in.readUnsignedByte();
+                    value |= (b & 0x7F) << shift;
+                    if ((b & 0x80) == 0) {
+                        return value;
+                    }
+                }
+                throw new StreamCorruptedException("Malformed variable-length integer");
+            }
+        }
+    }
+
+
     /**
      * 空的类型
      */
@@ -1,13 +1,17 @@
 package com.springframework.core;
 
 import com.springframework.lang.Nullable;
+import com.springframework.util.ClassUtils;
+import com.springframework.util.ConcurrentReferenceHashMap;
 import com.springframework.util.ObjectUtils;
+import com.springframework.util.ReflectionUtils;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.lang.annotation.Annotation;
 import java.lang.reflect.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author: zfan
@@ -15,17 +19,125 @@ import java.util.concurrent.ConcurrentHashMap;
  **/
 final class SerializableTypeWrapper {
 
-    private static final Class<?>[] SUPPORTED_SERIALIZABLE_TYPES = {
-            GenericArrayType.class, ParameterizedType.class, TypeVariable.class, WildcardType.class
-    };
+    /**
+     * 用于配置包装缓存最大条目数的系统属性，{@code 0}表示不限制
+     */
+    public static final String CACHE_SIZE_PROPERTY_NAME = "spring.serializableTypeWrapper.cacheSize";
+
+    private static final int DEFAULT_CACHE_SIZE = 4096;
+
+    /**
+     * 原始类型到序列化包装的缓存：条目为软引用，条目数受{@link #CACHE_SIZE_PROPERTY_NAME}限制，
+     * 可通过{@link #clearCache(ClassLoader)}释放指定类加载器的类
+     */
+    static final ConcurrentReferenceHashMap<Type, Type> cache =
+            ConcurrentReferenceHashMap.<Type, Type>builder().initialCapacity(256)
+                    .maximumSize(Integer.getInteger(CACHE_SIZE_PROPERTY_NAME, DEFAULT_CACHE_SIZE))
+                    .backgroundPurge(true).recordStats(true).build();
 
-    static final ConcurrentHashMap<Type, Type> cache = new ConcurrentHashMap<>(256);
+    /**
+     * 创建的包装数量
+     */
+    private static final LongAdder wrapperCreations = new LongAdder();
 
     /**
      * 私有化构造器
      */
     private SerializableTypeWrapper(){}
 
+    /**
+     * 返回类型代理缓存的统计信息
+     */
+    static ConcurrentReferenceHashMap.Statistics getCacheStatistics() {
+        return cache.getStatistics();
+    }
+
+    /**
+     * 返回到目前为止创建的包装数量，包括并发创建时被丢弃的包装
+     */
+    static long getWrapperCreationCount() {
+        return wrapperCreations.sum();
+    }
+
+    /**
+     * 移除引用了指定类加载器（或其子加载器）所加载类的包装，在卸载该类加载器前调用
+     * @param classLoader 即将卸载的类加载器
+     */
+    static void clearCache(ClassLoader classLoader) {
+        cache.entrySet().removeIf(entry -> isLoadedBy(entry.getKey(), classLoader) ||
+                (entry.getValue() instanceof SerializableTypeProxy &&
+                isLoadedBy(((SerializableTypeProxy) entry.getValue()).getTypeProvider(), classLoader)));
+    }
+
+    /**
+     * 类型中是否出现了指定类加载器所加载的类，类型变量只检查其声明所在的类
+     */
+    static boolean isLoadedBy(@Nullable Type type, ClassLoader classLoader) {
+        if (type instanceof Class) {
+            return ClassUtils.isLoadedBy((Class<?>) type, classLoader);
+        }
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterizedType = (ParameterizedType) type;
+            if (isLoadedBy(parameterizedType.getRawType(), classLoader) ||
+                    isLoadedBy(parameterizedType.getOwnerType(), classLoader)) {
+                return true;
+            }
+            return isLoadedBy(parameterizedType.getActualTypeArguments(), classLoader);
+        }
+        if (type instanceof GenericArrayType) {
+            return isLoadedBy(((GenericArrayType) type).getGenericComponentType(), classLoader);
+        }
+        if (type instanceof WildcardType) {
+            WildcardType wildcardType = (WildcardType) type;
+            return (isLoadedBy(wildcardType.getUpperBounds(), classLoader) ||
+                    isLoadedBy(wildcardType.getLowerBounds(), classLoader));
+        }
+        if (type instanceof TypeVariable) {
+            GenericDeclaration declaration = ((TypeVariable<?>) type).getGenericDeclaration();
+            Class<?> declaringClass = (declaration instanceof Class ? (Class<?>) declaration :
+                    declaration instanceof Member ? ((Member) declaration).getDeclaringClass() : null);
+            return (declaringClass != null && ClassUtils.isLoadedBy(declaringClass, classLoader));
+        }
+        return false;
+    }
+
+    private static boolean isLoadedBy(Type[] types, ClassLoader classLoader) {
+        for (Type type : types) {
+            if (isLoadedBy(type, classLoader)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 提供方是否持有指定类加载器所加载的类，沿方法调用提供方追溯到最初的字段或方法参数
+     */
+    static boolean isLoadedBy(TypeProvider provider, ClassLoader classLoader) {
+        TypeProvider current = provider;
+        while (current instanceof MethodInvokeTypeProvider) {
+            current = ((MethodInvokeTypeProvider) current).provider;
+        }
+        if (current instanceof FieldTypeProvider) {
+            return ClassUtils.isLoadedBy(((FieldTypeProvider) current).declaringClass, classLoader);
+        }
+        if (current instanceof MethodParameterTypeProvider) {
+            return ClassUtils.isLoadedBy(((MethodParameterTypeProvider) current).declaringClass, classLoader);
+        }
+        Object source = current.getSource();
+        if (source instanceof Class) {
+            return ClassUtils.isLoadedBy((Class<?>) source, classLoader);
+        }
+        if (source instanceof Member) {
+            return ClassUtils.isLoadedBy(((Member) source).getDeclaringClass(), classLoader);
+        }
+        if (source instanceof MethodParameter) {
+            return ClassUtils.isLoadedBy(((MethodParameter) source).getDeclaringClass(), classLoader);
+        }
+        return (current.getClass().getClassLoader() != null &&
+                ClassUtils.isLoadedBy(current.getClass(), classLoader));
+    }
+
     /**
      * 解包当前类型
      */
@@ -33,12 +145,42 @@ final class SerializableTypeWrapper {
         // 获取具体类型
         Type unwrapped = type;
         while (unwrapped instanceof SerializableTypeProxy) {
-            unwrapped = ((SerializableTypeProxy) type).getTypeProvider().getType();
+            unwrapped = ((SerializableTypeProxy) unwrapped).getTypeProvider().getType();
         }
         return (unwrapped != null ? (T) unwrapped : type);
     }
 
 
+    /**
+     * 返回{@link Class#getGenericSuperclass()}的序列化版本
+     */
+    @Nullable
+    static Type forGenericSuperclass(Class<?> type) {
+        return forTypeProvider(new DeclaredTypeProvider(type, DeclaredTypeProvider.SUPERCLASS, -1));
+    }
+
+    /**
+     * 返回{@link Class#getGenericInterfaces()}的序列化版本
+     */
+    static Type[] forGenericInterfaces(Class<?> type) {
+        Type[] result = new Type[type.getGenericInterfaces().length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = forTypeProvider(new DeclaredTypeProvider(type, DeclaredTypeProvider.INTERFACE, i));
+        }
+        return result;
+    }
+
+    /**
+     * 返回{@link Class#getTypeParameters()}的序列化版本
+     */
+    static Type[] forTypeParameters(Class<?> type) {
+        Type[] result = new Type[type.getTypeParameters().length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = forTypeProvider(new DeclaredTypeProvider(type, DeclaredTypeProvider.TYPE_PARAMETER, i));
+        }
+        return result;
+    }
+
     /**
      * 提取具体类型
      * @param provider
@@ -52,12 +194,6 @@ final class SerializableTypeWrapper {
         if (providedType == null || providedType instanceof Serializable) {
             return providedType;
         }
-        // 如果类型在当前运行时环境中通常不可序列化（即使是java.lang.Class本身，例如在Graal上），
-        // 那么让我们跳过任何包装尝试
-        if (GraalDetector.inImageCode() || !Serializable.class.isAssignableFrom(Class.class)) {
-            return providedType;
-        }
-
         // 为给定提供方获得一个序列化类型代理
         // 从缓存中获取类型
         Type cached = cache.get(providedType);
@@ -65,77 +201,308 @@ final class SerializableTypeWrapper {
             return cached;
         }
 
-        // 判断是否是支持的序列化类型
-        for (Class<?> type : SUPPORTED_SERIALIZABLE_TYPES) {
-            if (type.isInstance(providedType)) {
-                // 当前类 类加载器
-                ClassLoader classLoader = provider.getClass().getClassLoader();
-                Class<?>[] interfaces = new Class<?>[] {type, SerializableTypeProxy.class, Serializable.class};
-                // 创建调用处理器
-                InvocationHandler handler = new TypeProxyInvocationHandler(provider);
-                // 生成代理类
-                cached =  (Type) Proxy.newProxyInstance(classLoader, interfaces, handler);
-                // 将代理类放入缓存中
-                cache.put(providedType, cached);
-                return cached;
-            }
+        // 为支持的类型创建对应的序列化包装，放入缓存中
+        Type wrapper = createWrapper(provider, providedType);
+        wrapperCreations.increment();
+        cached = cache.putIfAbsent(providedType, wrapper);
+        return (cached != null ? cached : wrapper);
+    }
+
+    private static Type createWrapper(TypeProvider provider, Type providedType) {
+        if (providedType instanceof ParameterizedType) {
+            return new ParameterizedTypeWrapper(provider);
+        }
+        if (providedType instanceof TypeVariable) {
+            return new TypeVariableWrapper<>(provider);
+        }
+        if (providedType instanceof WildcardType) {
+            return new WildcardTypeWrapper(provider);
+        }
+        if (providedType instanceof GenericArrayType) {
+            return new GenericArrayTypeWrapper(provider);
         }
         throw new IllegalArgumentException("Unsupported Type class: " + providedType.getClass().getName());
     }
 
+    /**
+     * 查找类型接口上的无参方法，用于序列化后重新获取子类型
+     */
+    private static Method getTypeMethod(Class<?> typeInterface, String methodName) {
+        try {
+            return typeInterface.getMethod(methodName);
+        }
+        catch (NoSuchMethodException ex) {
+            throw new IllegalStateException("Could not find method " + methodName + " on " + typeInterface, ex);
+        }
+    }
+
 
 
     /**
-     * 通过代理提供序列化支持和增强任意方法，返回type或type数组
+     * 序列化类型包装的基类：相等性、哈希值和名称都委托给提供方的原始类型，
+     * 返回{@link Type}或{@link Type}数组的方法对结果再做序列化包装
      */
-    private static class TypeProxyInvocationHandler implements InvocationHandler, Serializable {
+    private abstract static class TypeWrapper<T extends Type> implements Type, SerializableTypeProxy, Serializable {
+
+        private static final long serialVersionUID = 1L;
 
         private final TypeProvider provider;
 
-        public TypeProxyInvocationHandler(TypeProvider provider) {
+        TypeWrapper(TypeProvider provider) {
             this.provider = provider;
         }
 
         @Override
-        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-            // 判断equals方法
-            if (method.getName().equals("equals") && args != null) {
-                // 拿到比较多想
-                Object other = args[0];
-                // 展开代理
-                if (other instanceof Type) {
-                    // 获取当前比较对象的具体类型
-                    other = unwrap((Type) other);
-                }
-                // 类型比较
-                return ObjectUtils.nullSafeEquals(this.provider.getType(), other);
+        public TypeProvider getTypeProvider() {
+            return this.provider;
+        }
+
+        /**
+         * 返回被包装的原始类型
+         */
+        @SuppressWarnings("unchecked")
+        final T getWrapped() {
+            return (T) this.provider.getType();
+        }
+
+        /**
+         * 包装单个子类型，{@code type}为原始类型上该方法的返回值
+         */
+        @Nullable
+        final Type wrap(Method method, @Nullable Type type) {
+            if (type == null || type instanceof Serializable) {
+                return type;
             }
-            // hashCode方法
-            else if (method.getName().equals("hashCode")) {
-                return ObjectUtils.nullSafeHashCode(this.provider.getType());
+            return forTypeProvider(new MethodInvokeTypeProvider(this.provider, method, -1, type));
+        }
+
+        /**
+         * 包装子类型数组，{@code types}为原始类型上同一方法的返回值，
+         * 各元素的提供方共享该数组，不再重新反射调用
+         */
+        final Type[] wrap(Method method, Type[] types) {
+            Type[] result = new Type[types.length];
+            for (int i = 0; i < result.length; i++) {
+                Type type = types[i];
+                result[i] = (type instanceof Serializable ? type :
+                        forTypeProvider(new MethodInvokeTypeProvider(this.provider, method, i, types)));
             }
-            else if (method.getName().equals("getTypeProvider")) {
-                return this.provider;
+            return result;
+        }
+
+        @Override
+        public String getTypeName() {
+            return getWrapped().getTypeName();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            // 展开代理
+            if (other instanceof Type) {
+                other = unwrap((Type) other);
             }
+            return ObjectUtils.nullSafeEquals(this.provider.getType(), other);
+        }
+
+        @Override
+        public int hashCode() {
+            return ObjectUtils.nullSafeHashCode(this.provider.getType());
+        }
+
+        @Override
+        public String toString() {
+            return getWrapped().toString();
+        }
+    }
+
+
+    /**
+     * {@link ParameterizedType}的序列化包装
+     */
+    private static final class ParameterizedTypeWrapper extends TypeWrapper<ParameterizedType>
+            implements ParameterizedType {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final Method getActualTypeArguments = getTypeMethod(ParameterizedType.class, "getActualTypeArguments");
 
-            // 单个类型对象返回的无参方法
-            if (Type.class == method.getReturnType() && args == null) {
-                return forTypeProvider(new MethodInvokeTypeProvider(this.provider, method, -1));
+        private static final Method getRawType = getTypeMethod(ParameterizedType.class, "getRawType");
+
+        private static final Method getOwnerType = getTypeMethod(ParameterizedType.class, "getOwnerType");
+
+        @Nullable
+        private transient volatile Type[] actualTypeArguments;
+
+        @Nullable
+        private transient volatile Type rawType;
+
+        @Nullable
+        private transient volatile Type ownerType;
+
+        ParameterizedTypeWrapper(TypeProvider provider) {
+            super(provider);
+        }
+
+        @Override
+        public Type[] getActualTypeArguments() {
+            Type[] actualTypeArguments = this.actualTypeArguments;
+            if (actualTypeArguments == null) {
+                actualTypeArguments = wrap(getActualTypeArguments, getWrapped().getActualTypeArguments());
+                this.actualTypeArguments = actualTypeArguments;
             }
-            // 多个类型对象返回的无参方法
-            else if(Type[].class == method.getReturnType() && args == null) {
-                Type[] result = new Type[((Type[]) method.invoke(this.provider.getType())).length];
-                for (int i = 0; i < result.length; i++) {
-                    result[i] = forTypeProvider(new MethodInvokeTypeProvider(this.provider, method, i));
-                }
-                return result;
+            return actualTypeArguments.clone();
+        }
+
+        @Override
+        public Type getRawType() {
+            Type rawType = this.rawType;
+            if (rawType == null) {
+                rawType = wrap(getRawType, getWrapped().getRawType());
+                this.rawType = rawType;
             }
-            try {
-                return method.invoke(this.provider.getType(), args);
+            return rawType;
+        }
+
+        @Override
+        @Nullable
+        public Type getOwnerType() {
+            Type ownerType = this.ownerType;
+            if (ownerType == null) {
+                ownerType = wrap(getOwnerType, getWrapped().getOwnerType());
+                this.ownerType = ownerType;
             }
-            catch (InvocationTargetException ex) {
-                throw ex.getTargetException();
+            return ownerType;
+        }
+    }
+
+
+    /**
+     * {@link TypeVariable}的序列化包装
+     */
+    private static final class TypeVariableWrapper<D extends GenericDeclaration> extends TypeWrapper<TypeVariable<D>>
+            implements TypeVariable<D> {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final Method getBounds = getTypeMethod(TypeVariable.class, "getBounds");
+
+        @Nullable
+        private transient volatile Type[] bounds;
+
+        TypeVariableWrapper(TypeProvider provider) {
+            super(provider);
+        }
+
+        @Override
+        public Type[] getBounds() {
+            Type[] bounds = this.bounds;
+            if (bounds == null) {
+                bounds = wrap(getBounds, getWrapped().getBounds());
+                this.bounds = bounds;
             }
+            return bounds.clone();
+        }
+
+        @Override
+        public D getGenericDeclaration() {
+            return getWrapped().getGenericDeclaration();
+        }
+
+        @Override
+        public String getName() {
+            return getWrapped().getName();
+        }
+
+        @Override
+        public AnnotatedType[] getAnnotatedBounds() {
+            return getWrapped().getAnnotatedBounds();
+        }
+
+        @Override
+        public <A extends Annotation> A getAnnotation(Class<A> annotationClass) {
+            return getWrapped().getAnnotation(annotationClass);
+        }
+
+        @Override
+        public Annotation[] getAnnotations() {
+            return getWrapped().getAnnotations();
+        }
+
+        @Override
+        public Annotation[] getDeclaredAnnotations() {
+            return getWrapped().getDeclaredAnnotations();
+        }
+    }
+
+
+    /**
+     * {@link WildcardType}的序列化包装
+     */
+    private static final class WildcardTypeWrapper extends TypeWrapper<WildcardType> implements WildcardType {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final Method getUpperBounds = getTypeMethod(WildcardType.class, "getUpperBounds");
+
+        private static final Method getLowerBounds = getTypeMethod(WildcardType.class, "getLowerBounds");
+
+        @Nullable
+        private transient volatile Type[] upperBounds;
+
+        @Nullable
+        private transient volatile Type[] lowerBounds;
+
+        WildcardTypeWrapper(TypeProvider provider) {
+            super(provider);
+        }
+
+        @Override
+        public Type[] getUpperBounds() {
+            Type[] upperBounds = this.upperBounds;
+            if (upperBounds == null) {
+                upperBounds = wrap(getUpperBounds, getWrapped().getUpperBounds());
+                this.upperBounds = upperBounds;
+            }
+            return upperBounds.clone();
+        }
+
+        @Override
+        public Type[] getLowerBounds() {
+            Type[] lowerBounds = this.lowerBounds;
+            if (lowerBounds == null) {
+                lowerBounds = wrap(getLowerBounds, getWrapped().getLowerBounds());
+                this.lowerBounds = lowerBounds;
+            }
+            return lowerBounds.clone();
+        }
+    }
+
+
+    /**
+     * {@link GenericArrayType}的序列化包装
+     */
+    private static final class GenericArrayTypeWrapper extends TypeWrapper<GenericArrayType>
+            implements GenericArrayType {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final Method getGenericComponentType = getTypeMethod(GenericArrayType.class, "getGenericComponentType");
+
+        @Nullable
+        private transient volatile Type genericComponentType;
+
+        GenericArrayTypeWrapper(TypeProvider provider) {
+            super(provider);
+        }
+
+        @Override
+        public Type getGenericComponentType() {
+            Type genericComponentType = this.genericComponentType;
+            if (genericComponentType == null) {
+                genericComponentType = wrap(getGenericComponentType, getWrapped().getGenericComponentType());
+                this.genericComponentType = genericComponentType;
+            }
+            return genericComponentType;
         }
     }
 
@@ -242,11 +609,20 @@ final class SerializableTypeWrapper {
         private transient volatile Object result;
 
         public MethodInvokeTypeProvider(TypeProvider provider, Method method, int index) {
+            this(provider, method, index, null);
+        }
+
+        /**
+         * 使用已经取得的方法返回值创建提供方，首次访问时不再反射调用
+         * @param result 方法在原始类型上的返回值，{@link Type}或{@link Type}数组
+         */
+        MethodInvokeTypeProvider(TypeProvider provider, Method method, int index, @Nullable Object result) {
             this.provider = provider;
             this.methodName = method.getName();
             this.declaringClass = method.getDeclaringClass();
             this.index = index;
             this.method = method;
+            this.result = result;
         }
 
         @Override
@@ -255,13 +631,91 @@ final class SerializableTypeWrapper {
             return null;
         }
 
+        TypeProvider getProvider() {
+            return this.provider;
+        }
+
+        Method getMethod() {
+            return this.method;
+        }
+
+        int getIndex() {
+            return this.index;
+        }
+
         @Override
         public Type getType() {
             Object result = this.result;
             if (result == null) {
+                result = ReflectionUtils.<Type, Object>functionFor(this.method).apply(this.provider.getType());
+                this.result = result;
+            }
+            return (result instanceof Type[] ? ((Type[]) result)[this.index] : (Type) result);
+        }
 
+        private void readObject(ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
+            inputStream.defaultReadObject();
+            try {
+                this.method = this.declaringClass.getMethod(this.methodName);
             }
-            return null;
+            catch (Throwable ex) {
+                throw new IllegalStateException("Could not find original class structure", ex);
+            }
+        }
+    }
+
+    /**
+     * 类声明中的父类、接口或类型参数的类型提供
+     */
+    static class DeclaredTypeProvider implements TypeProvider {
+
+        private static final long serialVersionUID = 1L;
+
+        /** {@link Class#getGenericSuperclass()} */
+        static final int SUPERCLASS = 0;
+
+        /** {@link Class#getGenericInterfaces()}中的一个接口 */
+        static final int INTERFACE = 1;
+
+        /** {@link Class#getTypeParameters()}中的一个类型参数 */
+        static final int TYPE_PARAMETER = 2;
+
+        private final Class<?> declaringClass;
+
+        private final int kind;
+
+        private final int index;
+
+        DeclaredTypeProvider(Class<?> declaringClass, int kind, int index) {
+            this.declaringClass = declaringClass;
+            this.kind = kind;
+            this.index = index;
+        }
+
+        @Override
+        @Nullable
+        public Type getType() {
+            switch (this.kind) {
+                case SUPERCLASS:
+                    return this.declaringClass.getGenericSuperclass();
+                case INTERFACE:
+                    return this.declaringClass.getGenericInterfaces()[this.index];
+                default:
+                    return this.declaringClass.getTypeParameters()[this.index];
+            }
+        }
+
+        @Override
+        public Object getSource() {
+            return this.declaringClass;
+        }
+
+        int getKind() {
+            return this.kind;
+        }
+
+        int getIndex() {
+            return this.index;
         }
     }
 
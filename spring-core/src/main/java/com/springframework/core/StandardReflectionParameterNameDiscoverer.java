@@ -0,0 +1,42 @@
+package com.springframework.core;
+
+import com.springframework.lang.Nullable;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+
+/**
+ * 通过反射{@link Parameter#getName()}读取参数名的{@link ParameterNameDiscoverer}实现，
+ * 要求类以{@code -parameters}编译，否则返回{@code null}
+ * @author: zfan
+ * @create: 2021-08-04 09:44
+ **/
+public class StandardReflectionParameterNameDiscoverer implements ParameterNameDiscoverer {
+
+    @Override
+    @Nullable
+    public String[] getParameterNames(Method method) {
+        return getParameterNames(method.getParameters());
+    }
+
+    @Override
+    @Nullable
+    public String[] getParameterNames(Constructor<?> ctor) {
+        return getParameterNames(ctor.getParameters());
+    }
+
+    @Nullable
+    private String[] getParameterNames(Parameter[] parameters) {
+        String[] parameterNames = new String[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            Parameter param = parameters[i];
+            if (!param.isNamePresent()) {
+                return null;
+            }
+            parameterNames[i] = param.getName();
+        }
+        return parameterNames;
+    }
+
+}
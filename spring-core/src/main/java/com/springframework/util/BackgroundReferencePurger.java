@@ -0,0 +1,189 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.springframework.util;
+
+import java.lang.ref.WeakReference;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared daemon thread that purges garbage collected entries from every
+ * {@link ConcurrentReferenceHashMap} created with
+ * {@link ConcurrentReferenceHashMap.Builder#backgroundPurge background purging},
+ * so that reads on those maps never have to restructure them.
+ *
+ * <p>Maps are held weakly and are forgotten once they have been garbage collected.
+ * The thread is started when the first map is registered.
+ */
+public final class BackgroundReferencePurger {
+
+	/**
+	 * Time between two sweeps over the registered maps.
+	 */
+	private static final long SWEEP_INTERVAL_MILLIS = 100;
+
+	private static final BackgroundReferencePurger sharedInstance = new BackgroundReferencePurger();
+
+
+	private final List<WeakReference<ConcurrentReferenceHashMap<?, ?>>> maps = new CopyOnWriteArrayList<>();
+
+	private final AtomicLong purgedCount = new AtomicLong();
+
+	private final AtomicLong sweepCount = new AtomicLong();
+
+	private final AtomicLong failureCount = new AtomicLong();
+
+	/**
+	 * {@link System#nanoTime()} at which the last sweep completed.
+	 */
+	private volatile long lastSweepTime = System.nanoTime();
+
+	private volatile boolean started;
+
+
+	private BackgroundReferencePurger() {
+	}
+
+	/**
+	 * Return the purger shared by all maps.
+	 */
+	public static BackgroundReferencePurger getSharedInstance() {
+		return sharedInstance;
+	}
+
+
+	/**
+	 * Register a map whose garbage collected entries should be purged in the background.
+	 * @param map the map to purge
+	 */
+	void register(ConcurrentReferenceHashMap<?, ?> map) {
+		this.maps.add(new WeakReference<ConcurrentReferenceHashMap<?, ?>>(map));
+		if (!this.started) {
+			start();
+		}
+	}
+
+	private synchronized void start() {
+		if (!this.started) {
+			this.lastSweepTime = System.nanoTime();
+			// Create the thread with this class's privileges only, so that it does not
+			// keep the context class loader or access control context of whichever
+			// caller happened to register the first map
+			Thread thread = AccessController.doPrivileged(new PrivilegedAction<Thread>() {
+				@Override
+				public Thread run() {
+					Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							purgeContinuously();
+						}
+					}, "ConcurrentReferenceHashMap-purger");
+					thread.setContextClassLoader(BackgroundReferencePurger.class.getClassLoader());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			thread.start();
+			this.started = true;
+		}
+	}
+
+	private void purgeContinuously() {
+		while (true) {
+			try {
+				Thread.sleep(SWEEP_INTERVAL_MILLIS);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			sweep();
+		}
+	}
+
+	/**
+	 * Purge every registered map once, dropping maps that have been garbage collected.
+	 * A map that fails to purge is reported to the uncaught exception handler of the
+	 * current thread and does not stop the other maps from being purged.
+	 */
+	void sweep() {
+		long purged = 0;
+		for (WeakReference<ConcurrentReferenceHashMap<?, ?>> reference : this.maps) {
+			ConcurrentReferenceHashMap<?, ?> map = reference.get();
+			if (map != null) {
+				try {
+					purged += map.purge();
+				}
+				catch (RuntimeException ex) {
+					this.failureCount.incrementAndGet();
+					Thread thread = Thread.currentThread();
+					thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+				}
+			}
+			else {
+				this.maps.remove(reference);
+			}
+		}
+		this.purgedCount.addAndGet(purged);
+		this.sweepCount.incrementAndGet();
+		this.lastSweepTime = System.nanoTime();
+	}
+
+
+	/**
+	 * Return the total number of garbage collected references purged so far.
+	 */
+	public long getPurgedCount() {
+		return this.purgedCount.get();
+	}
+
+	/**
+	 * Return the number of sweeps over the registered maps completed so far.
+	 */
+	public long getSweepCount() {
+		return this.sweepCount.get();
+	}
+
+	/**
+	 * Return the number of times purging a map has failed with an exception so far.
+	 */
+	public long getFailureCount() {
+		return this.failureCount.get();
+	}
+
+	/**
+	 * Return the number of maps currently registered, including maps that have been
+	 * garbage collected since the last sweep.
+	 */
+	public int getRegisteredMapCount() {
+		return this.maps.size();
+	}
+
+	/**
+	 * Return how long ago the last sweep completed. This stays below the sweep interval
+	 * of 100 milliseconds while the purger keeps up and grows when it falls behind.
+	 * @param unit the unit of the returned value
+	 */
+	public long getLag(TimeUnit unit) {
+		return unit.convert(System.nanoTime() - this.lastSweepTime, TimeUnit.NANOSECONDS);
+	}
+
+}
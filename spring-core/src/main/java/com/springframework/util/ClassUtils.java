@@ -1,6 +1,10 @@
 package com.springframework.util;
 
+import com.springframework.lang.Nullable;
+
 import java.lang.reflect.Modifier;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 /**
  * @author: zfan
@@ -8,8 +12,74 @@ import java.lang.reflect.Modifier;
  **/
 public abstract class ClassUtils {
 
+    /**
+     * 包装类型到对应基本类型的映射，例如 Integer.class -> int.class
+     */
+    private static final Map<Class<?>, Class<?>> primitiveWrapperTypeMap = new IdentityHashMap<>(8);
+
+    /**
+     * 基本类型到对应包装类型的映射，例如 int.class -> Integer.class
+     */
+    private static final Map<Class<?>, Class<?>> primitiveTypeToWrapperMap = new IdentityHashMap<>(8);
+
+    static {
+        primitiveWrapperTypeMap.put(Boolean.class, boolean.class);
+        primitiveWrapperTypeMap.put(Byte.class, byte.class);
+        primitiveWrapperTypeMap.put(Character.class, char.class);
+        primitiveWrapperTypeMap.put(Double.class, double.class);
+        primitiveWrapperTypeMap.put(Float.class, float.class);
+        primitiveWrapperTypeMap.put(Integer.class, int.class);
+        primitiveWrapperTypeMap.put(Long.class, long.class);
+        primitiveWrapperTypeMap.put(Short.class, short.class);
+        primitiveWrapperTypeMap.put(Void.class, void.class);
+
+        for (Map.Entry<Class<?>, Class<?>> entry : primitiveWrapperTypeMap.entrySet()) {
+            primitiveTypeToWrapperMap.put(entry.getValue(), entry.getKey());
+        }
+    }
+
     public static boolean isInnerClass(Class<?> clazz) {
-        return (clazz.isMemberClass() && Modifier.isStatic(clazz.getModifiers()));
+        return (clazz.isMemberClass() && !Modifier.isStatic(clazz.getModifiers()));
+    }
+
+    /**
+     * 检查右侧类型能否赋值给左侧类型，基本类型和对应的包装类型视为可以互相赋值
+     * @param lhsType 目标类型
+     * @param rhsType 需要检查的值类型
+     */
+    public static boolean isAssignable(Class<?> lhsType, Class<?> rhsType) {
+        Assert.notNull(lhsType, "Left-hand side type must not be null");
+        Assert.notNull(rhsType, "Right-hand side type must not be null");
+        if (lhsType.isAssignableFrom(rhsType)) {
+            return true;
+        }
+        if (lhsType.isPrimitive()) {
+            Class<?> resolvedPrimitive = primitiveWrapperTypeMap.get(rhsType);
+            return (lhsType == resolvedPrimitive);
+        }
+        else {
+            Class<?> resolvedWrapper = primitiveTypeToWrapperMap.get(rhsType);
+            return (resolvedWrapper != null && lhsType.isAssignableFrom(resolvedWrapper));
+        }
+    }
+
+    /**
+     * 检查给定类是否由指定类加载器或其子加载器加载，即卸载该类加载器时是否需要释放对该类的引用
+     * @param clazz 需要检查的类
+     * @param classLoader 类加载器
+     */
+    public static boolean isLoadedBy(Class<?> clazz, @Nullable ClassLoader classLoader) {
+        if (classLoader == null) {
+            return false;
+        }
+        ClassLoader current = clazz.getClassLoader();
+        while (current != null) {
+            if (current == classLoader) {
+                return true;
+            }
+            current = current.getParent();
+        }
+        return false;
     }
 
 }
@@ -22,10 +22,22 @@ import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Array;
+import java.lang.reflect.Member;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A {@link ConcurrentHashMap} that uses {@link ReferenceType#SOFT soft} or
@@ -43,7 +55,47 @@ import java.util.concurrent.locks.ReentrantLock;
  * entries.
  *
  * <p>If not explicitly specified, this implementation will use
- * {@linkplain SoftReference soft entry references}.
+ * {@linkplain SoftReference soft entry references}. Metadata caches that should only
+ * lose entries when their classes are unloaded can use {@link ReferenceType#WEAK_KEYS}
+ * or {@link ReferenceType#EPHEMERON} instead.
+ *
+ * <p>Writes lock the {@link Segment} they belong to by default. A map created with
+ * {@link WriteMode#CAS} instead updates each bucket of a segment with a
+ * compare-and-set, so that only resizing and purging take the segment lock.
+ * See {@link #builder()} for the available options.
+ *
+ * <p>The number of segments is fixed by the {@code concurrencyLevel} unless
+ * {@linkplain Builder#adaptiveConcurrency adaptive concurrency} is enabled, in which
+ * case segments whose lock is frequently contended are split in two at runtime.
+ *
+ * <p>Reads purge garbage collected entries when they notice them, unless
+ * {@linkplain Builder#backgroundPurge background purging} is enabled, in which case
+ * the shared {@link BackgroundReferencePurger} does so and reads never restructure.
+ *
+ * <p>A map may also be given a {@linkplain Builder#maximumSize maximum size}, which
+ * bounds it independently of the garbage collector. Each segment then evicts its least
+ * frequently used entries, estimated with a TinyLFU frequency sketch, and only admits a
+ * new entry if it is used at least as frequently as the entry it would replace.
+ *
+ * <p>Maps created with {@linkplain Builder#recordStats statistics} count hits, misses,
+ * writes, purges and the time spent holding segment locks, see {@link #getStatistics()}.
+ *
+ * <p>{@link #computeIfAbsent}, {@link #computeIfPresent}, {@link #compute} and
+ * {@link #merge} run one at a time per key, without holding a segment lock while the
+ * function runs, so that an expensive value is only computed once by concurrent callers.
+ *
+ * <p>{@link #putAll} and {@link #removeAll} group their keys by segment, taking each
+ * segment lock once, and {@code putAll} grows each table straight to its final size.
+ *
+ * <p>A map created with {@linkplain Builder#identityKeys identity keys} compares keys
+ * with {@code ==} and hashes them with {@link System#identityHashCode}, which suits
+ * caches keyed by {@code Class} objects or other canonical instances. It does not
+ * suit {@code Method} or {@code Field} keys, since reflection returns a new copy of a
+ * member on every lookup. See {@link ConcurrentReferenceLongHashMap} for {@code long} keys.
+ *
+ * <p>The {@link #entrySet() entry set} spliterator splits by segment and then by bucket,
+ * so that parallel streams and the {@link #forEach(long, BiConsumer) forEach},
+ * {@link #search search} and {@link #reduce reduce} bulk operations scale across cores.
  *
  * @author Phillip Webb
  * @author Juergen Hoeller
@@ -61,15 +113,97 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 
 	private static final ReferenceType DEFAULT_REFERENCE_TYPE = ReferenceType.SOFT;
 
+	private static final WriteMode DEFAULT_WRITE_MODE = WriteMode.LOCK;
+
 	private static final int MAXIMUM_CONCURRENCY_LEVEL = 1 << 16;
 
 	private static final int MAXIMUM_SEGMENT_SIZE = 1 << 30;
 
+	/**
+	 * Marker returned by the lock-free segment operations when no entry was affected.
+	 */
+	private static final Object NO_MATCH = new Object();
+
+	/**
+	 * Number of segments per available processor that adaptive concurrency may grow to.
+	 */
+	private static final int ADAPTIVE_SEGMENTS_PER_PROCESSOR = 4;
+
+	/**
+	 * Number of lock acquisitions over which the contention of a segment is sampled.
+	 */
+	private static final int CONTENTION_SAMPLE_SIZE = 256;
+
+	/**
+	 * Number of contended lock acquisitions within a sample that causes a segment split.
+	 */
+	private static final int CONTENTION_SPLIT_THRESHOLD = CONTENTION_SAMPLE_SIZE / 8;
+
+	/**
+	 * Number of entries compared when choosing an entry to evict from a bounded map.
+	 */
+	private static final int EVICTION_SAMPLE_SIZE = 8;
+
+	/**
+	 * Stands in for a {@code null} key in the computations in progress and in
+	 * {@link ReferenceType#WEAK_KEYS weak keys}.
+	 */
+	private static final Object NULL_KEY = new Object();
+
+
+	/**
+	 * Array of segments indexed using the high order bits from the hash. The number of
+	 * bits used is the binary logarithm of the array length. A segment that uses fewer
+	 * bits than that (see {@link Segment#getDepth()}) occupies several consecutive slots.
+	 */
+	private volatile Segment[] segments;
+
+	/**
+	 * The maximum number of high order hash bits that may be used to index segments.
+	 * Segments are only split when this exceeds the initial number of bits.
+	 */
+	private final int maximumShift;
+
+	/**
+	 * Monitor used to serialize segment splits.
+	 */
+	private final Object segmentsMonitor = new Object();
+
+	/**
+	 * Whether garbage collected entries are purged by the {@link BackgroundReferencePurger}
+	 * rather than by reads.
+	 */
+	private final boolean backgroundPurge;
+
+	/**
+	 * The maximum number of entries, or {@code 0} if the map is only bounded by
+	 * the garbage collector.
+	 */
+	private final long maximumSize;
+
+	/**
+	 * Whether keys are compared by identity rather than with {@code equals}.
+	 */
+	private final boolean identityKeys;
+
+	/**
+	 * Entries pinned to the class owning their key, or {@code null} unless the reference
+	 * type is {@link ReferenceType#EPHEMERON}.
+	 */
+	@Nullable
+	private final ClassValue<Set<Entry<?, ?>>> pinnedEntries;
+
+	/**
+	 * Counters for {@link #getStatistics()}, or {@code null} if not recorded.
+	 */
+	@Nullable
+	private final StatisticsCounter statistics;
 
 	/**
-	 * Array of segments indexed using the high order bits from the hash.
+	 * Computations in progress by key, created on first use.
 	 */
-	private final Segment[] segments;
+	@Nullable
+	private volatile ConcurrentHashMap<Object, Computation> computations;
 
 	/**
 	 * When the average number of references per table exceeds this value resize will be attempted.
@@ -82,9 +216,9 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 	private final ReferenceType referenceType;
 
 	/**
-	 * The shift value used to calculate the size of the segments array and an index from the hash.
+	 * The write mode: LOCK or CAS.
 	 */
-	private final int shift;
+	private final WriteMode writeMode;
 
 	/**
 	 * Late binding entry set.
@@ -158,26 +292,70 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 	 * write to the map
 	 * @param referenceType the reference type used for entries (soft or weak)
 	 */
-	@SuppressWarnings("unchecked")
 	public ConcurrentReferenceHashMap(
 			int initialCapacity, float loadFactor, int concurrencyLevel, ReferenceType referenceType) {
 
+		this(ConcurrentReferenceHashMap.builder().initialCapacity(initialCapacity).loadFactor(loadFactor)
+				.concurrencyLevel(concurrencyLevel).referenceType(referenceType));
+	}
+
+	/**
+	 * Create a new {@code ConcurrentReferenceHashMap} instance from the settings
+	 * of the given builder.
+	 * @param builder the builder holding the map settings
+	 * @see #builder()
+	 */
+	protected ConcurrentReferenceHashMap(Builder<?, ?> builder) {
+		int initialCapacity = builder.initialCapacity;
+		float loadFactor = builder.loadFactor;
+		int concurrencyLevel = builder.concurrencyLevel;
 		Assert.isTrue(initialCapacity >= 0, "Initial capacity must not be negative");
 		Assert.isTrue(loadFactor > 0f, "Load factor must be positive");
 		Assert.isTrue(concurrencyLevel > 0, "Concurrency level must be positive");
-		Assert.notNull(referenceType, "Reference type must not be null");
+		Assert.notNull(builder.referenceType, "Reference type must not be null");
+		Assert.notNull(builder.writeMode, "Write mode must not be null");
+		Assert.isTrue(!builder.adaptiveConcurrency || builder.writeMode == WriteMode.LOCK,
+				"Adaptive concurrency requires WriteMode.LOCK");
+		Assert.isTrue(builder.maximumSize >= 0, "Maximum size must not be negative");
+		Assert.isTrue(!builder.adaptiveConcurrency || builder.referenceType != ReferenceType.WEAK_KEYS,
+				"Adaptive concurrency is not supported with ReferenceType.WEAK_KEYS");
 		this.loadFactor = loadFactor;
-		this.shift = calculateShift(concurrencyLevel, MAXIMUM_CONCURRENCY_LEVEL);
-		int size = 1 << this.shift;
-		this.referenceType = referenceType;
+		this.maximumSize = builder.maximumSize;
+		this.identityKeys = builder.identityKeys;
+		this.pinnedEntries = (builder.referenceType == ReferenceType.EPHEMERON ? createPinnedEntries() : null);
+		this.statistics = (builder.recordStats ? new StatisticsCounter() : null);
+		int shift = calculateShift(concurrencyLevel, MAXIMUM_CONCURRENCY_LEVEL);
+		if (this.maximumSize > 0) {
+			// Give every segment a share of at least one entry
+			shift = Math.min(shift, 63 - Long.numberOfLeadingZeros(this.maximumSize));
+		}
+		int size = 1 << shift;
+		this.referenceType = builder.referenceType;
+		this.writeMode = builder.writeMode;
+		this.maximumShift = (builder.adaptiveConcurrency ? Math.max(shift, calculateShift(
+				Runtime.getRuntime().availableProcessors() * ADAPTIVE_SEGMENTS_PER_PROCESSOR,
+				MAXIMUM_CONCURRENCY_LEVEL)) : shift);
 		int roundedUpSegmentCapacity = (int) ((initialCapacity + size - 1L) / size);
 		int initialSize = 1 << calculateShift(roundedUpSegmentCapacity, MAXIMUM_SEGMENT_SIZE);
-		Segment[] segments = (Segment[]) Array.newInstance(Segment.class, size);
+		Segment[] segments = createSegmentArray(size);
 		int resizeThreshold = (int) (initialSize * getLoadFactor());
 		for (int i = 0; i < segments.length; i++) {
-			segments[i] = new Segment(initialSize, resizeThreshold);
+			segments[i] = new Segment(initialSize, resizeThreshold, shift, getMaximumCount(i, shift));
 		}
 		this.segments = segments;
+		this.backgroundPurge = builder.backgroundPurge;
+		if (this.backgroundPurge) {
+			BackgroundReferencePurger.getSharedInstance().register(this);
+		}
+	}
+
+
+	/**
+	 * Return a builder for a {@code ConcurrentReferenceHashMap} with non-default settings.
+	 * @return a new builder
+	 */
+	public static <K, V> Builder<K, V> builder() {
+		return new Builder<>();
 	}
 
 
@@ -185,6 +363,23 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 		return this.loadFactor;
 	}
 
+	/**
+	 * Return the {@link WriteMode} used by this map.
+	 */
+	public final WriteMode getWriteMode() {
+		return this.writeMode;
+	}
+
+	/**
+	 * Return a snapshot of the statistics of this map.
+	 * @return the statistics, or {@code null} if the map was not created with
+	 * {@link Builder#recordStats statistics}
+	 */
+	@Nullable
+	public Statistics getStatistics() {
+		return (this.statistics != null ? this.statistics.snapshot() : null);
+	}
+
 	protected final int getSegmentsSize() {
 		return this.segments.length;
 	}
@@ -205,11 +400,18 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 	/**
 	 * Get the hash for a given object, apply an additional hash function to reduce
 	 * collisions. This implementation uses the same Wang/Jenkins algorithm as
-	 * {@link ConcurrentHashMap}. Subclasses can override to provide alternative hashing.
+	 * {@link ConcurrentHashMap}, or a single multiplicative mix of the
+	 * {@link System#identityHashCode identity hash code} for identity keys.
+	 * Subclasses can override to provide alternative hashing.
 	 * @param o the object to hash (may be null)
 	 * @return the resulting hash code
 	 */
 	protected int getHash(@Nullable Object o) {
+		if (this.identityKeys) {
+			// Identity hash codes are already random, only spread them to the high bits
+			int hash = System.identityHashCode(o) * 0x9e3779b9;
+			return (hash ^ (hash >>> 16));
+		}
 		int hash = (o != null ? o.hashCode() : 0);
 		hash += (hash << 15) ^ 0xffffcd7d;
 		hash ^= (hash >>> 10);
@@ -237,13 +439,32 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 	@Override
 	public boolean containsKey(@Nullable Object key) {
 		Entry<K, V> entry = getEntryIfAvailable(key);
-		return (entry != null && ObjectUtils.nullSafeEquals(entry.getKey(), key));
+		return (entry != null && isSameKey(entry.getKey(), key));
 	}
 
 	@Nullable
 	private Entry<K, V> getEntryIfAvailable(@Nullable Object key) {
-		Reference<K, V> ref = getReference(key, Restructure.WHEN_NECESSARY);
-		return (ref != null ? ref.get() : null);
+		int hash = getHash(key);
+		Segment segment = getSegmentForHash(hash);
+		Reference<K, V> ref = segment.getReference(key, hash,
+				(this.backgroundPurge ? Restructure.NEVER : Restructure.WHEN_NECESSARY));
+		segment.recordAccess(hash);
+		Entry<K, V> entry = (ref != null ? ref.get() : null);
+		if (this.statistics != null) {
+			(entry != null ? this.statistics.hits : this.statistics.misses).increment();
+		}
+		return entry;
+	}
+
+	/**
+	 * Return the value for the given key without recording a hit, a miss or an access,
+	 * for probing again a key that has just been looked up.
+	 */
+	@Nullable
+	private V peek(@Nullable Object key) {
+		Reference<K, V> ref = getReference(key, Restructure.NEVER);
+		Entry<K, V> entry = (ref != null ? ref.get() : null);
+		return (entry != null ? entry.getValue() : null);
 	}
 
 	/**
@@ -273,16 +494,19 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 
 	@Nullable
 	private V put(@Nullable final K key, @Nullable final V value, final boolean overwriteExisting) {
+		if (this.statistics != null) {
+			this.statistics.puts.increment();
+		}
+		if (this.writeMode == WriteMode.CAS) {
+			int hash = getHash(key);
+			return getSegmentForHash(hash).putWithoutLock(hash, key, value, overwriteExisting);
+		}
 		return doTask(key, new Task<V>(TaskOption.RESTRUCTURE_BEFORE, TaskOption.RESIZE) {
 			@Override
 			@Nullable
 			protected V execute(@Nullable Reference<K, V> ref, @Nullable Entry<K, V> entry, @Nullable Entries entries) {
 				if (entry != null) {
-					V oldValue = entry.getValue();
-					if (overwriteExisting) {
-						entry.setValue(value);
-					}
-					return oldValue;
+					return (overwriteExisting ? entry.setValue(value) : entry.getValue());
 				}
 				Assert.state(entries != null, "No entries segment");
 				entries.add(value);
@@ -294,6 +518,11 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 	@Override
 	@Nullable
 	public V remove(Object key) {
+		if (this.writeMode == WriteMode.CAS) {
+			int hash = getHash(key);
+			Object oldValue = getSegmentForHash(hash).removeWithoutLock(hash, key, null, false);
+			return (oldValue != NO_MATCH ? asValue(oldValue) : null);
+		}
 		return doTask(key, new Task<V>(TaskOption.RESTRUCTURE_AFTER, TaskOption.SKIP_IF_EMPTY) {
 			@Override
 			@Nullable
@@ -301,8 +530,9 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 				if (entry != null) {
 					if (ref != null) {
 						ref.release();
+						recordRemoval();
 					}
-					return entry.value;
+					return entry.getValue();
 				}
 				return null;
 			}
@@ -311,12 +541,17 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 
 	@Override
 	public boolean remove(Object key, final Object value) {
+		if (this.writeMode == WriteMode.CAS) {
+			int hash = getHash(key);
+			return (getSegmentForHash(hash).removeWithoutLock(hash, key, value, true) != NO_MATCH);
+		}
 		Boolean result = doTask(key, new Task<Boolean>(TaskOption.RESTRUCTURE_AFTER, TaskOption.SKIP_IF_EMPTY) {
 			@Override
 			protected Boolean execute(@Nullable Reference<K, V> ref, @Nullable Entry<K, V> entry) {
 				if (entry != null && ObjectUtils.nullSafeEquals(entry.getValue(), value)) {
 					if (ref != null) {
 						ref.release();
+						recordRemoval();
 					}
 					return true;
 				}
@@ -328,6 +563,10 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 
 	@Override
 	public boolean replace(K key, final V oldValue, final V newValue) {
+		if (this.writeMode == WriteMode.CAS) {
+			int hash = getHash(key);
+			return (getSegmentForHash(hash).replaceWithoutLock(hash, key, oldValue, true, newValue) != NO_MATCH);
+		}
 		Boolean result = doTask(key, new Task<Boolean>(TaskOption.RESTRUCTURE_BEFORE, TaskOption.SKIP_IF_EMPTY) {
 			@Override
 			protected Boolean execute(@Nullable Reference<K, V> ref, @Nullable Entry<K, V> entry) {
@@ -344,25 +583,360 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 	@Override
 	@Nullable
 	public V replace(K key, final V value) {
+		if (this.writeMode == WriteMode.CAS) {
+			int hash = getHash(key);
+			Object oldValue = getSegmentForHash(hash).replaceWithoutLock(hash, key, null, false, value);
+			return (oldValue != NO_MATCH ? asValue(oldValue) : null);
+		}
 		return doTask(key, new Task<V>(TaskOption.RESTRUCTURE_BEFORE, TaskOption.SKIP_IF_EMPTY) {
 			@Override
 			@Nullable
 			protected V execute(@Nullable Reference<K, V> ref, @Nullable Entry<K, V> entry) {
 				if (entry != null) {
-					V oldValue = entry.getValue();
-					entry.setValue(value);
-					return oldValue;
+					return entry.setValue(value);
 				}
 				return null;
 			}
 		});
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>The mappings are grouped by segment. Each segment is locked once and, if
+	 * necessary, resized once to hold all of its new entries.
+	 */
+	@Override
+	public void putAll(Map<? extends K, ? extends V> map) {
+		if (map.isEmpty()) {
+			return;
+		}
+		if (this.statistics != null) {
+			this.statistics.puts.add(map.size());
+		}
+		Batch batch = new Batch(map.size());
+		for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+			batch.add(getHash(entry.getKey()), entry.getKey(), entry.getValue());
+		}
+		putAll(batch);
+	}
+
+	private void putAll(Batch batch) {
+		for (Map.Entry<Segment, Batch> group : groupBySegment(batch).entrySet()) {
+			if (!group.getKey().putAll(group.getValue())) {
+				putAll(group.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Return the mappings of the given keys that are present in this map.
+	 * @param keys the keys to look up
+	 * @return the mappings found, in the iteration order of the given keys
+	 */
+	public Map<K, V> getAll(Collection<? extends K> keys) {
+		Map<K, V> result = new LinkedHashMap<>(keys.size() * 4 / 3 + 1);
+		for (K key : keys) {
+			// Reads never lock, so there is nothing to gain from grouping keys by segment
+			Entry<K, V> entry = getEntryIfAvailable(key);
+			if (entry != null) {
+				result.put(key, entry.getValue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Remove the mappings of all given keys. The keys are grouped by segment, and each
+	 * segment is locked and restructured once.
+	 * @param keys the keys to remove
+	 * @return the number of mappings that were removed
+	 */
+	public int removeAll(Collection<?> keys) {
+		if (keys.isEmpty()) {
+			return 0;
+		}
+		Batch batch = new Batch(keys.size());
+		for (Object key : keys) {
+			batch.add(getHash(key), key, null);
+		}
+		return removeAll(batch);
+	}
+
+	private int removeAll(Batch batch) {
+		int removed = 0;
+		for (Map.Entry<Segment, Batch> group : groupBySegment(batch).entrySet()) {
+			int removedFromSegment = group.getKey().removeAll(group.getValue());
+			removed += (removedFromSegment >= 0 ? removedFromSegment : removeAll(group.getValue()));
+		}
+		return removed;
+	}
+
+	private Map<Segment, Batch> groupBySegment(Batch batch) {
+		Segment[] segments = this.segments;
+		int shift = Integer.numberOfTrailingZeros(segments.length);
+		int[] segmentIndexes = new int[batch.size];
+		int[] groupSizes = new int[segments.length];
+		for (int i = 0; i < batch.size; i++) {
+			segmentIndexes[i] = (batch.hashes[i] >>> (32 - shift)) & (segments.length - 1);
+			groupSizes[segmentIndexes[i]]++;
+		}
+		// Segments that span several slots collect the keys of all of them
+		for (int i = 0; i < segments.length - 1; i++) {
+			if (segments[i + 1] == segments[i]) {
+				groupSizes[i + 1] += groupSizes[i];
+			}
+		}
+		Map<Segment, Batch> groups = new IdentityHashMap<>();
+		for (int i = 0; i < batch.size; i++) {
+			int segmentIndex = segmentIndexes[i];
+			Segment segment = segments[segmentIndex];
+			Batch group = groups.get(segment);
+			if (group == null) {
+				int last = segmentIndex;
+				while (last + 1 < segments.length && segments[last + 1] == segment) {
+					last++;
+				}
+				group = new Batch(groupSizes[last]);
+				groups.put(segment, group);
+			}
+			group.add(batch.hashes[i], batch.keys[i], batch.values[i]);
+		}
+		return groups;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Concurrent calls for the same key wait for each other, so the function runs
+	 * once and the other callers return its result.
+	 */
+	@Override
+	@Nullable
+	public V computeIfAbsent(@Nullable K key, Function<? super K, ? extends V> mappingFunction) {
+		Assert.notNull(mappingFunction, "Mapping function must not be null");
+		V value = get(key);
+		if (value != null) {
+			return value;
+		}
+		Computation computation = beginComputation(key);
+		try {
+			value = peek(key);
+			if (value == null) {
+				V newValue = mappingFunction.apply(key);
+				if (newValue != null) {
+					value = putIfAbsent(key, newValue);
+					if (value == null) {
+						value = newValue;
+					}
+				}
+			}
+			return value;
+		}
+		finally {
+			endComputation(key, computation);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Concurrent compute operations for the same key run one after the other. The
+	 * function is only applied again if a plain write changes the value in between.
+	 */
+	@Override
+	@Nullable
+	public V computeIfPresent(@Nullable K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+		Assert.notNull(remappingFunction, "Remapping function must not be null");
+		if (get(key) == null) {
+			return null;
+		}
+		Computation computation = beginComputation(key);
+		try {
+			V oldValue;
+			while ((oldValue = peek(key)) != null) {
+				V newValue = remappingFunction.apply(key, oldValue);
+				if (newValue != null ? replace(key, oldValue, newValue) : remove(key, oldValue)) {
+					return newValue;
+				}
+			}
+			return null;
+		}
+		finally {
+			endComputation(key, computation);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Concurrent compute operations for the same key run one after the other. The
+	 * function is only applied again if a plain write changes the value in between.
+	 */
+	@Override
+	@Nullable
+	public V compute(@Nullable K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+		Assert.notNull(remappingFunction, "Remapping function must not be null");
+		Computation computation = beginComputation(key);
+		try {
+			V oldValue = get(key);
+			while (true) {
+				V newValue = remappingFunction.apply(key, oldValue);
+				if (newValue != null) {
+					if (oldValue != null) {
+						if (replace(key, oldValue, newValue)) {
+							return newValue;
+						}
+						oldValue = get(key);
+					}
+					else if ((oldValue = putIfAbsent(key, newValue)) == null) {
+						return newValue;
+					}
+				}
+				else if (oldValue == null || remove(key, oldValue)) {
+					return null;
+				}
+				else {
+					oldValue = get(key);
+				}
+			}
+		}
+		finally {
+			endComputation(key, computation);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Concurrent compute operations for the same key run one after the other. The
+	 * function is only applied again if a plain write changes the value in between.
+	 */
+	@Override
+	@Nullable
+	public V merge(@Nullable K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+		Assert.notNull(value, "Value must not be null");
+		Assert.notNull(remappingFunction, "Remapping function must not be null");
+		Computation computation = beginComputation(key);
+		try {
+			V oldValue = get(key);
+			while (true) {
+				if (oldValue != null) {
+					V newValue = remappingFunction.apply(oldValue, value);
+					if (newValue != null ? replace(key, oldValue, newValue) : remove(key, oldValue)) {
+						return newValue;
+					}
+					oldValue = get(key);
+				}
+				else if ((oldValue = putIfAbsent(key, value)) == null) {
+					return value;
+				}
+			}
+		}
+		finally {
+			endComputation(key, computation);
+		}
+	}
+
+	/**
+	 * Register a computation for the given key, waiting for any computation already
+	 * in progress for it to end first.
+	 * @param key the key
+	 * @return the registered computation
+	 * @throws IllegalStateException if the current thread is already computing the key
+	 */
+	private Computation beginComputation(@Nullable Object key) {
+		ConcurrentHashMap<Object, Computation> computations = this.computations;
+		if (computations == null) {
+			synchronized (this) {
+				computations = this.computations;
+				if (computations == null) {
+					computations = new ConcurrentHashMap<>();
+					this.computations = computations;
+				}
+			}
+		}
+		Object computationKey = (key != null ? key : NULL_KEY);
+		Computation computation = new Computation();
+		while (true) {
+			Computation existing = computations.putIfAbsent(computationKey, computation);
+			if (existing == null) {
+				return computation;
+			}
+			Assert.state(existing.owner != computation.owner, "Recursive update of key " + key);
+			existing.await();
+		}
+	}
+
+	private void endComputation(@Nullable Object key, Computation computation) {
+		ConcurrentHashMap<Object, Computation> computations = this.computations;
+		Assert.state(computations != null, "No computations");
+		computations.remove((key != null ? key : NULL_KEY), computation);
+		computation.complete();
+	}
+
+	/**
+	 * Perform the given action for each mapping.
+	 * @param parallelismThreshold the (estimated) number of mappings needed for this
+	 * operation to be executed in parallel: {@code Long.MAX_VALUE} always runs it
+	 * sequentially, {@code 1} splits it as much as possible
+	 * @param action the action
+	 */
+	public void forEach(long parallelismThreshold, BiConsumer<? super K, ? super V> action) {
+		Assert.notNull(action, "Action must not be null");
+		entryStream(parallelismThreshold).forEach(entry -> action.accept(entry.getKey(), entry.getValue()));
+	}
+
+	/**
+	 * Return a non-null result of applying the given search function to some mapping,
+	 * or {@code null} if there is none. The search stops once a result has been found.
+	 * @param parallelismThreshold the (estimated) number of mappings needed for this
+	 * operation to be executed in parallel, see {@link #forEach(long, BiConsumer)}
+	 * @param searchFunction a function returning a non-null result on success
+	 * @return the result of the search function for some mapping, or {@code null}
+	 */
+	@Nullable
+	public <U> U search(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+		Assert.notNull(searchFunction, "Search function must not be null");
+		return entryStream(parallelismThreshold).<U>map(entry -> searchFunction.apply(entry.getKey(), entry.getValue()))
+				.filter(Objects::nonNull).findAny().orElse(null);
+	}
+
+	/**
+	 * Return the result of accumulating the given transformation of all mappings
+	 * using the given reducer to combine values.
+	 * @param parallelismThreshold the (estimated) number of mappings needed for this
+	 * operation to be executed in parallel, see {@link #forEach(long, BiConsumer)}
+	 * @param transformer a function returning the transformation of a mapping, or
+	 * {@code null} if the mapping should be skipped
+	 * @param reducer a commutative and associative function combining two results
+	 * @return the accumulated result, or {@code null} if no mapping was transformed
+	 */
+	@Nullable
+	public <U> U reduce(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> transformer,
+			BiFunction<? super U, ? super U, ? extends U> reducer) {
+
+		Assert.notNull(transformer, "Transformer must not be null");
+		Assert.notNull(reducer, "Reducer must not be null");
+		return entryStream(parallelismThreshold).<U>map(entry -> transformer.apply(entry.getKey(), entry.getValue()))
+				.filter(Objects::nonNull).reduce(reducer::apply).orElse(null);
+	}
+
+	private Stream<Map.Entry<K, V>> entryStream(long parallelismThreshold) {
+		Assert.isTrue(parallelismThreshold > 0, "Parallelism threshold must be positive");
+		return StreamSupport.stream(new EntrySpliterator(parallelismThreshold), size() >= parallelismThreshold);
+	}
+
 	@Override
 	public void clear() {
-		for (Segment segment : this.segments) {
-			segment.clear();
+		Segment[] segments;
+		do {
+			// Clear again if segments were split in the meantime
+			segments = this.segments;
+			Segment previous = null;
+			for (Segment segment : segments) {
+				if (segment != previous) {
+					segment.clear();
+				}
+				previous = segment;
+			}
 		}
+		while (segments != this.segments);
 	}
 
 	/**
@@ -372,17 +946,35 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 	 * and is useful when the Map is read frequently but updated less often.
 	 */
 	public void purgeUnreferencedEntries() {
+		purge();
+	}
+
+	/**
+	 * Purge garbage collected entries from every segment.
+	 * @return the number of references that were purged
+	 */
+	int purge() {
+		int purged = 0;
+		Segment previous = null;
 		for (Segment segment : this.segments) {
-			segment.restructureIfNecessary(false);
+			if (segment != previous) {
+				purged += segment.restructureIfNecessary(false);
+			}
+			previous = segment;
 		}
+		return purged;
 	}
 
 
 	@Override
 	public int size() {
 		int size = 0;
+		Segment previous = null;
 		for (Segment segment : this.segments) {
-			size += segment.getCount();
+			if (segment != previous) {
+				size += segment.getCount();
+			}
+			previous = segment;
 		}
 		return size;
 	}
@@ -414,37 +1006,343 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 	}
 
 	private Segment getSegmentForHash(int hash) {
-		return this.segments[(hash >>> (32 - this.shift)) & (this.segments.length - 1)];
+		Segment[] segments = this.segments;
+		int shift = Integer.numberOfTrailingZeros(segments.length);
+		return segments[(hash >>> (32 - shift)) & (segments.length - 1)];
+	}
+
+	@SuppressWarnings("unchecked")
+	private Segment[] createSegmentArray(int size) {
+		return (Segment[]) Array.newInstance(Segment.class, size);
 	}
 
 	/**
-	 * Calculate a shift value that can be used to create a power-of-two value between
-	 * the specified maximum and minimum values.
-	 * @param minimumValue the minimum value
-	 * @param maximumValue the maximum value
-	 * @return the calculated shift (use {@code 1 << shift} to obtain a value)
+	 * Split the given segment in two, doubling the segments array first if the
+	 * segment already uses as many hash bits as the array does.
+	 * @param segment the segment to split
 	 */
-	protected static int calculateShift(int minimumValue, int maximumValue) {
-		int shift = 0;
-		int value = 1;
-		while (value < minimumValue && value < maximumValue) {
-			value <<= 1;
-			shift++;
+	private void splitSegment(Segment segment) {
+		synchronized (this.segmentsMonitor) {
+			Segment[] segments = this.segments;
+			int shift = Integer.numberOfTrailingZeros(segments.length);
+			if (segment.isRetired() || segment.getDepth() >= this.maximumShift || segment.maximumCount < 2) {
+				return;
+			}
+			if (segment.getDepth() == shift) {
+				Segment[] doubled = createSegmentArray(segments.length << 1);
+				for (int i = 0; i < doubled.length; i++) {
+					doubled[i] = segments[i >> 1];
+				}
+				segments = doubled;
+				shift++;
+			}
+			else {
+				segments = segments.clone();
+			}
+			int start = 0;
+			while (segments[start] != segment) {
+				start++;
+			}
+			int span = 1 << (shift - segment.getDepth());
+			segment.lock();
+			try {
+				Segment[] halves = segment.split();
+				for (int i = 0; i < span; i++) {
+					segments[start + i] = halves[i < span / 2 ? 0 : 1];
+				}
+				this.segments = segments;
+			}
+			finally {
+				segment.unlock();
+			}
 		}
-		return shift;
 	}
 
-
 	/**
-	 * Various reference types supported by this map.
+	 * Return the share of the maximum size held by one of the initial segments. The
+	 * remainder of the division is spread over the first segments, so that the shares
+	 * of all segments add up to the maximum size.
+	 * @param index the index of the segment
+	 * @param shift the number of high order hash bits used to select a segment
+	 * @return the maximum number of entries of the segment
 	 */
-	public enum ReferenceType {
+	private int getMaximumCount(int index, int shift) {
+		if (this.maximumSize == 0) {
+			return Integer.MAX_VALUE;
+		}
+		long share = (this.maximumSize >> shift) + (index < (this.maximumSize & ((1L << shift) - 1)) ? 1 : 0);
+		return (int) Math.min(share, Integer.MAX_VALUE);
+	}
 
-		/** Use {@link SoftReference SoftReferences}. */
-		SOFT,
+	@SuppressWarnings("unchecked")
+	@Nullable
+	private V asValue(@Nullable Object value) {
+		return (V) value;
+	}
 
-		/** Use {@link WeakReference WeakReferences}. */
-		WEAK
+	private static ClassValue<Set<Entry<?, ?>>> createPinnedEntries() {
+		return new ClassValue<Set<Entry<?, ?>>>() {
+			@Override
+			protected Set<Entry<?, ?>> computeValue(Class<?> type) {
+				return Collections.newSetFromMap(new IdentityHashMap<>());
+			}
+		};
+	}
+
+	/**
+	 * Keep the given entry strongly reachable from the class owning its key, for
+	 * {@link ReferenceType#EPHEMERON}.
+	 */
+	private void pin(Entry<K, V> entry) {
+		Assert.state(this.pinnedEntries != null, "No pinned entries");
+		Set<Entry<?, ?>> pinned = this.pinnedEntries.get(getKeyOwner(entry.getKey()));
+		synchronized (pinned) {
+			pinned.add(entry);
+		}
+	}
+
+	private void unpin(Entry<K, V> entry) {
+		Assert.state(this.pinnedEntries != null, "No pinned entries");
+		Set<Entry<?, ?>> pinned = this.pinnedEntries.get(getKeyOwner(entry.getKey()));
+		synchronized (pinned) {
+			pinned.remove(entry);
+		}
+	}
+
+	/**
+	 * Return the class whose unloading ends the life of an
+	 * {@link ReferenceType#EPHEMERON} entry with the given key.
+	 */
+	private static Class<?> getKeyOwner(@Nullable Object key) {
+		if (key instanceof Class) {
+			return (Class<?>) key;
+		}
+		if (key instanceof Member) {
+			return ((Member) key).getDeclaringClass();
+		}
+		return (key != null ? key.getClass() : ConcurrentReferenceHashMap.class);
+	}
+
+	private boolean isSameKey(@Nullable Object entryKey, @Nullable Object key) {
+		return (entryKey == key || (!this.identityKeys && ObjectUtils.nullSafeEquals(entryKey, key)));
+	}
+
+	private void recordRemoval() {
+		if (this.statistics != null) {
+			this.statistics.removals.increment();
+		}
+	}
+
+	/**
+	 * Calculate a shift value that can be used to create a power-of-two value between
+	 * the specified maximum and minimum values.
+	 * @param minimumValue the minimum value
+	 * @param maximumValue the maximum value
+	 * @return the calculated shift (use {@code 1 << shift} to obtain a value)
+	 */
+	protected static int calculateShift(int minimumValue, int maximumValue) {
+		int shift = 0;
+		int value = 1;
+		while (value < minimumValue && value < maximumValue) {
+			value <<= 1;
+			shift++;
+		}
+		return shift;
+	}
+
+
+	/**
+	 * Various reference types supported by this map.
+	 */
+	public enum ReferenceType {
+
+		/** Use {@link SoftReference SoftReferences}. */
+		SOFT,
+
+		/** Use {@link WeakReference WeakReferences}. */
+		WEAK,
+
+		/**
+		 * Hold keys with {@link WeakReference WeakReferences} and values strongly. An entry
+		 * is cleared once its key is no longer reachable, regardless of memory pressure.
+		 * Values must not reference their key, or the entry is never cleared.
+		 * Not supported with adaptive concurrency.
+		 */
+		WEAK_KEYS,
+
+		/**
+		 * Hold entries with {@link WeakReference WeakReferences}, keeping each entry
+		 * strongly reachable from the class that owns its key: the key itself for a
+		 * {@code Class}, the declaring class for a {@code Member}, and the class of the
+		 * key otherwise. An entry therefore lives until it is removed or that class is
+		 * unloaded, and its value may reference its key or class loader without
+		 * preventing the unloading, like an ephemeron.
+		 */
+		EPHEMERON
+	}
+
+
+	/**
+	 * The ways in which a map can apply updates to its segments.
+	 */
+	public enum WriteMode {
+
+		/**
+		 * Lock the {@link Segment} for every update.
+		 */
+		LOCK,
+
+		/**
+		 * Update buckets with compare-and-set and only lock the {@link Segment}
+		 * in order to resize or purge it.
+		 */
+		CAS
+	}
+
+
+	/**
+	 * Builder for a {@link ConcurrentReferenceHashMap} with non-default settings.
+	 * @param <K> the key type
+	 * @param <V> the value type
+	 * @see ConcurrentReferenceHashMap#builder()
+	 */
+	public static class Builder<K, V> {
+
+		private int initialCapacity = DEFAULT_INITIAL_CAPACITY;
+
+		private float loadFactor = DEFAULT_LOAD_FACTOR;
+
+		private int concurrencyLevel = DEFAULT_CONCURRENCY_LEVEL;
+
+		private ReferenceType referenceType = DEFAULT_REFERENCE_TYPE;
+
+		private WriteMode writeMode = DEFAULT_WRITE_MODE;
+
+		private boolean adaptiveConcurrency;
+
+		private boolean backgroundPurge;
+
+		private long maximumSize;
+
+		private boolean recordStats;
+
+		private boolean identityKeys;
+
+		protected Builder() {
+		}
+
+		/**
+		 * Set the initial capacity of the map.
+		 */
+		public Builder<K, V> initialCapacity(int initialCapacity) {
+			this.initialCapacity = initialCapacity;
+			return this;
+		}
+
+		/**
+		 * Set the load factor. When the average number of references per table
+		 * exceeds this value, resize will be attempted.
+		 */
+		public Builder<K, V> loadFactor(float loadFactor) {
+			this.loadFactor = loadFactor;
+			return this;
+		}
+
+		/**
+		 * Set the expected number of threads that will concurrently write to the map.
+		 */
+		public Builder<K, V> concurrencyLevel(int concurrencyLevel) {
+			this.concurrencyLevel = concurrencyLevel;
+			return this;
+		}
+
+		/**
+		 * Set the reference type used for entries.
+		 */
+		public Builder<K, V> referenceType(ReferenceType referenceType) {
+			this.referenceType = referenceType;
+			return this;
+		}
+
+		/**
+		 * Set the way in which segments are updated.
+		 * @see WriteMode
+		 */
+		public Builder<K, V> writeMode(WriteMode writeMode) {
+			this.writeMode = writeMode;
+			return this;
+		}
+
+		/**
+		 * Set whether segments whose lock is frequently contended should be split at
+		 * runtime, up to four segments per available processor. The configured
+		 * {@link #concurrencyLevel} then only sets the initial number of segments.
+		 * <p>Only supported with {@link WriteMode#LOCK}, since {@link WriteMode#CAS}
+		 * writes do not contend on the segment lock.
+		 */
+		public Builder<K, V> adaptiveConcurrency(boolean adaptiveConcurrency) {
+			this.adaptiveConcurrency = adaptiveConcurrency;
+			return this;
+		}
+
+		/**
+		 * Set whether garbage collected entries should be purged by the shared
+		 * {@link BackgroundReferencePurger} daemon thread. Reads then never
+		 * restructure the map; writes still purge what the daemon has not reached yet.
+		 */
+		public Builder<K, V> backgroundPurge(boolean backgroundPurge) {
+			this.backgroundPurge = backgroundPurge;
+			return this;
+		}
+
+		/**
+		 * Set the maximum number of entries, on top of the bound given by the garbage
+		 * collector. The maximum is divided exactly between the segments, each of which
+		 * evicts its least frequently used entries once it holds more than its share, so
+		 * the map holds at most the maximum number of entries once concurrent writes have
+		 * completed. A map
+		 * with a maximum smaller than its concurrency level uses fewer segments, so that
+		 * each segment may hold at least one entry.
+		 * <p>Since a new entry is only admitted when it is used at least as frequently
+		 * as the entry it would replace, a value that has just been put may not be
+		 * retained, in the same way as a value whose reference has been collected.
+		 * @param maximumSize the maximum number of entries, or {@code 0} for no maximum
+		 */
+		public Builder<K, V> maximumSize(long maximumSize) {
+			this.maximumSize = maximumSize;
+			return this;
+		}
+
+		/**
+		 * Set whether the map should record {@link Statistics}. The counters are striped
+		 * {@link LongAdder LongAdders}, so recording does not add contention between
+		 * threads, but reads and writes do pay for the extra updates.
+		 * @see ConcurrentReferenceHashMap#getStatistics()
+		 */
+		public Builder<K, V> recordStats(boolean recordStats) {
+			this.recordStats = recordStats;
+			return this;
+		}
+
+		/**
+		 * Set whether keys should be compared with {@code ==} and hashed with
+		 * {@link System#identityHashCode} instead of {@code equals} and {@code hashCode},
+		 * for keys that are canonical instances such as {@code Class} objects. Keys that
+		 * are equal but not identical, such as the {@code Method} and {@code Field} copies
+		 * returned by {@link Class#getDeclaredMethod} and {@link Class#getDeclaredField},
+		 * would not find each other's entries.
+		 */
+		public Builder<K, V> identityKeys(boolean identityKeys) {
+			this.identityKeys = identityKeys;
+			return this;
+		}
+
+		/**
+		 * Create the {@link ConcurrentReferenceHashMap}.
+		 */
+		public <K1 extends K, V1 extends V> ConcurrentReferenceHashMap<K1, V1> build() {
+			return new ConcurrentReferenceHashMap<>(this);
+		}
 	}
 
 
@@ -458,29 +1356,171 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 
 		private final int initialSize;
 
+		/**
+		 * The number of high order hash bits shared by all keys in this segment.
+		 */
+		private final int depth;
+
+		/**
+		 * Lock acquisitions, and contended ones, since contention was last sampled.
+		 * Only modified while holding the lock.
+		 */
+		private int lockAcquisitions;
+
+		private int contendedLockAcquisitions;
+
+		/**
+		 * Whether the entries of this segment have been moved to two new segments.
+		 */
+		private volatile boolean retired;
+
+		/**
+		 * {@link System#nanoTime()} at which the lock was acquired, when recording statistics.
+		 * Only accessed while holding the lock.
+		 */
+		private long lockedSince;
+
+		/**
+		 * This segment's share of the maximum size of the map.
+		 */
+		private final int maximumCount;
+
+		/**
+		 * Access frequencies of the keys in this segment, or {@code null} if the map
+		 * is unbounded.
+		 */
+		@Nullable
+		private final FrequencySketch sketch;
+
 		/**
 		 * Array of references indexed using the low order bits from the hash.
 		 * This property should only be set along with {@code resizeThreshold}.
+		 * Once replaced, every bucket of the previous array holds a
+		 * {@link ForwardingReference} to the new one.
 		 */
-		private volatile Reference<K, V>[] references;
+		private volatile AtomicReferenceArray<Reference<K, V>> references;
 
 		/**
 		 * The total number of references contained in this segment. This includes chained
 		 * references and references that have been garbage collected but not purged.
 		 */
-		private volatile int count = 0;
+		private final AtomicInteger count = new AtomicInteger();
 
 		/**
 		 * The threshold when resizing of the references should occur. When {@code count}
 		 * exceeds this value references will be resized.
 		 */
-		private int resizeThreshold;
+		private volatile int resizeThreshold;
 
-		public Segment(int initialSize, int resizeThreshold) {
+		public Segment(int initialSize, int resizeThreshold, int depth, int maximumCount) {
 			this.referenceManager = createReferenceManager();
 			this.initialSize = initialSize;
+			this.depth = depth;
 			this.references = createReferenceArray(initialSize);
 			this.resizeThreshold = resizeThreshold;
+			this.maximumCount = maximumCount;
+			this.sketch = (ConcurrentReferenceHashMap.this.maximumSize > 0 ?
+					new FrequencySketch(Math.max(maximumCount, 1)) : null);
+		}
+
+		@Override
+		public void lock() {
+			super.lock();
+			if (ConcurrentReferenceHashMap.this.statistics != null && getHoldCount() == 1) {
+				this.lockedSince = System.nanoTime();
+			}
+		}
+
+		@Override
+		public boolean tryLock() {
+			boolean locked = super.tryLock();
+			if (locked && ConcurrentReferenceHashMap.this.statistics != null && getHoldCount() == 1) {
+				this.lockedSince = System.nanoTime();
+			}
+			return locked;
+		}
+
+		@Override
+		public void unlock() {
+			StatisticsCounter statistics = ConcurrentReferenceHashMap.this.statistics;
+			if (statistics != null && getHoldCount() == 1) {
+				statistics.lockHeldNanos.add(System.nanoTime() - this.lockedSince);
+			}
+			super.unlock();
+		}
+
+		/**
+		 * Record an access to the given key hash for the eviction policy of a bounded map.
+		 * @param hash the hash of the key
+		 */
+		void recordAccess(int hash) {
+			if (this.sketch != null) {
+				this.sketch.increment(hash);
+			}
+		}
+
+		/**
+		 * Evict entries while this segment holds more than its share of the maximum
+		 * size. The entry just added is only kept if it has been used at least as
+		 * frequently as the entry chosen for eviction. Must be called with the lock held.
+		 * @param candidate the reference that has just been added
+		 */
+		private void evictIfNecessary(Reference<K, V> candidate) {
+			if (this.sketch == null) {
+				return;
+			}
+			this.sketch.increment(candidate.getHash());
+			while (this.count.get() > this.maximumCount) {
+				restructureIfNecessary(false);
+				if (this.count.get() <= this.maximumCount) {
+					return;
+				}
+				Reference<K, V> victim = sampleVictim(candidate);
+				if (victim == null ||
+						this.sketch.frequency(candidate.getHash()) < this.sketch.frequency(victim.getHash())) {
+					victim = candidate;
+				}
+				Entry<K, V> entry = victim.get();
+				if (entry != null && entry.release() && unlink(victim)) {
+					this.count.decrementAndGet();
+					victim.release();
+					if (ConcurrentReferenceHashMap.this.statistics != null) {
+						ConcurrentReferenceHashMap.this.statistics.evictions.increment();
+					}
+				}
+				if (victim == candidate) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Choose the least frequently used of a few live entries, starting at a random bucket.
+		 * @param excluded a reference that must not be chosen
+		 * @return the reference to evict, or {@code null} if none was found
+		 */
+		@Nullable
+		private Reference<K, V> sampleVictim(Reference<K, V> excluded) {
+			AtomicReferenceArray<Reference<K, V>> references = this.references;
+			int length = references.length();
+			int start = ThreadLocalRandom.current().nextInt(length);
+			Reference<K, V> victim = null;
+			int victimFrequency = Integer.MAX_VALUE;
+			int sampled = 0;
+			for (int i = 0; i < length && sampled < EVICTION_SAMPLE_SIZE; i++) {
+				for (Reference<K, V> ref = references.get((start + i) & (length - 1)); ref != null; ref = ref.getNext()) {
+					Entry<K, V> entry = ref.get();
+					if (ref != excluded && entry != null && !entry.isReleased()) {
+						int frequency = this.sketch.frequency(ref.getHash());
+						if (frequency < victimFrequency) {
+							victim = ref;
+							victimFrequency = frequency;
+						}
+						sampled++;
+					}
+				}
+			}
+			return victim;
 		}
 
 		@Nullable
@@ -488,13 +1528,17 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 			if (restructure == Restructure.WHEN_NECESSARY) {
 				restructureIfNecessary(false);
 			}
-			if (this.count == 0) {
+			if (this.count.get() == 0) {
 				return null;
 			}
 			// Use a local copy to protect against other threads writing
-			Reference<K, V>[] references = this.references;
+			AtomicReferenceArray<Reference<K, V>> references = this.references;
 			int index = getIndex(hash, references);
-			Reference<K, V> head = references[index];
+			Reference<K, V> head = references.get(index);
+			while (head instanceof ForwardingReference) {
+				references = ((ForwardingReference<K, V>) head).getNextTable();
+				head = references.get(getIndex(hash, references));
+			}
 			return findInChain(head, key, hash);
 		}
 
@@ -512,32 +1556,392 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 			if (task.hasOption(TaskOption.RESTRUCTURE_BEFORE)) {
 				restructureIfNecessary(resize);
 			}
-			if (task.hasOption(TaskOption.SKIP_IF_EMPTY) && this.count == 0) {
+			if (task.hasOption(TaskOption.SKIP_IF_EMPTY) && this.count.get() == 0) {
 				return task.execute(null, null, null);
 			}
-			lock();
+			boolean split = lockForUpdate();
+			boolean retired = this.retired;
 			try {
-				final int index = getIndex(hash, this.references);
-				final Reference<K, V> head = this.references[index];
-				Reference<K, V> ref = findInChain(head, key, hash);
-				Entry<K, V> entry = (ref != null ? ref.get() : null);
-				Entries entries = new Entries() {
-					@Override
-					public void add(@Nullable V value) {
-						@SuppressWarnings("unchecked")
-						Entry<K, V> newEntry = new Entry<>((K) key, value);
-						Reference<K, V> newReference = Segment.this.referenceManager.createReference(newEntry, hash, head);
-						Segment.this.references[index] = newReference;
-						Segment.this.count++;
-					}
-				};
-				return task.execute(ref, entry, entries);
+				if (!retired) {
+					final AtomicReferenceArray<Reference<K, V>> references = this.references;
+					final int index = getIndex(hash, references);
+					final Reference<K, V> head = references.get(index);
+					Reference<K, V> ref = findInChain(head, key, hash);
+					Entry<K, V> entry = (ref != null ? ref.get() : null);
+					Entries entries = new Entries() {
+						@Override
+						public void add(@Nullable V value) {
+							@SuppressWarnings("unchecked")
+							Entry<K, V> newEntry = Segment.this.referenceManager.createEntry((K) key, value);
+							Reference<K, V> newReference = Segment.this.referenceManager.createReference(newEntry, hash, head);
+							references.set(index, newReference);
+							Segment.this.count.incrementAndGet();
+							evictIfNecessary(newReference);
+						}
+					};
+					return task.execute(ref, entry, entries);
+				}
 			}
 			finally {
 				unlock();
-				if (task.hasOption(TaskOption.RESTRUCTURE_AFTER)) {
+				if (!retired && task.hasOption(TaskOption.RESTRUCTURE_AFTER)) {
 					restructureIfNecessary(resize);
 				}
+				if (split) {
+					splitSegment(this);
+				}
+			}
+			// Split while waiting for the lock: retry against the new segments
+			return getSegmentForHash(hash).doTask(hash, key, task);
+		}
+
+		/**
+		 * Lock this segment for an update, sampling how often the lock is contended
+		 * if the segment may still be split.
+		 * @return {@code true} if the segment should be split after the update
+		 */
+		private boolean lockForUpdate() {
+			if (this.depth >= ConcurrentReferenceHashMap.this.maximumShift || this.maximumCount < 2) {
+				lock();
+				return false;
+			}
+			if (!tryLock()) {
+				lock();
+				this.contendedLockAcquisitions++;
+			}
+			if (++this.lockAcquisitions < CONTENTION_SAMPLE_SIZE) {
+				return false;
+			}
+			boolean split = (this.contendedLockAcquisitions >= CONTENTION_SPLIT_THRESHOLD);
+			this.lockAcquisitions = 0;
+			this.contendedLockAcquisitions = 0;
+			return split;
+		}
+
+		/**
+		 * Put all mappings of the given batch into this segment, taking the lock once
+		 * and resizing at most once.
+		 * @param batch mappings whose keys all belong to this segment
+		 * @return {@code false} if this segment has been split meanwhile, in which case
+		 * nothing was put
+		 */
+		@SuppressWarnings("unchecked")
+		boolean putAll(Batch batch) {
+			restructureIfNecessary(false);
+			boolean split = lockForUpdate();
+			boolean retired = this.retired;
+			try {
+				if (retired) {
+					return false;
+				}
+				AtomicReferenceArray<Reference<K, V>> references = this.references;
+				int missing = 0;
+				for (int i = 0; i < batch.size; i++) {
+					int hash = batch.hashes[i];
+					Reference<K, V> ref = findInChain(references.get(getIndex(hash, references)), batch.keys[i], hash);
+					if (ref == null || ref.get() == null) {
+						missing++;
+					}
+				}
+				ensureCapacity(this.count.get() + missing);
+				if (ConcurrentReferenceHashMap.this.writeMode == WriteMode.CAS) {
+					// Lock-free writers may link in new heads at any time, so insert as they do
+					unlock();
+					try {
+						for (int i = 0; i < batch.size; i++) {
+							putWithoutLock(batch.hashes[i], (K) batch.keys[i], (V) batch.values[i], true);
+						}
+					}
+					finally {
+						lock();
+					}
+					return true;
+				}
+				references = this.references;
+				for (int i = 0; i < batch.size; i++) {
+					int hash = batch.hashes[i];
+					// Look up again: the batch may contain the same key twice, and an insert
+					// may have evicted an entry that was found by the counting pass
+					Reference<K, V> ref = findInChain(references.get(getIndex(hash, references)), batch.keys[i], hash);
+					Entry<K, V> entry = (ref != null ? ref.get() : null);
+					if (entry != null) {
+						entry.setValue((V) batch.values[i]);
+					}
+					else {
+						int index = getIndex(hash, references);
+						Reference<K, V> newReference = this.referenceManager.createReference(
+								this.referenceManager.createEntry((K) batch.keys[i], (V) batch.values[i]),
+								hash, references.get(index));
+						references.set(index, newReference);
+						this.count.incrementAndGet();
+						evictIfNecessary(newReference);
+						references = this.references;
+					}
+				}
+				return true;
+			}
+			finally {
+				unlock();
+				if (split) {
+					splitSegment(this);
+				}
+			}
+		}
+
+		/**
+		 * Remove the mappings of all keys of the given batch from this segment, taking
+		 * the lock once and restructuring once.
+		 * @param batch keys that all belong to this segment
+		 * @return the number of mappings removed, or {@code -1} if this segment has been
+		 * split meanwhile, in which case nothing was removed
+		 */
+		int removeAll(Batch batch) {
+			int removed = 0;
+			if (ConcurrentReferenceHashMap.this.writeMode == WriteMode.CAS) {
+				for (int i = 0; i < batch.size; i++) {
+					if (removeWithoutLock(batch.hashes[i], batch.keys[i], null, false) != NO_MATCH) {
+						removed++;
+					}
+				}
+				return removed;
+			}
+			if (this.count.get() == 0) {
+				return 0;
+			}
+			boolean split = lockForUpdate();
+			boolean retired = this.retired;
+			try {
+				if (retired) {
+					return -1;
+				}
+				AtomicReferenceArray<Reference<K, V>> references = this.references;
+				for (int i = 0; i < batch.size; i++) {
+					int hash = batch.hashes[i];
+					Reference<K, V> ref = findInChain(references.get(getIndex(hash, references)), batch.keys[i], hash);
+					if (ref != null) {
+						ref.release();
+						recordRemoval();
+						removed++;
+					}
+				}
+				return removed;
+			}
+			finally {
+				unlock();
+				if (!retired) {
+					restructureIfNecessary(false);
+				}
+				if (split) {
+					splitSegment(this);
+				}
+			}
+		}
+
+		/**
+		 * Resize the table once so that it can hold the given number of references
+		 * without reaching the resize threshold. Must be called with the lock held.
+		 * @param expectedCount the number of references the table should hold
+		 */
+		private void ensureCapacity(int expectedCount) {
+			int size = this.references.length();
+			int newSize = size;
+			while (newSize < MAXIMUM_SEGMENT_SIZE && expectedCount >= (int) (newSize * getLoadFactor())) {
+				newSize <<= 1;
+			}
+			if (newSize > size) {
+				int dropped = resize(newSize);
+				StatisticsCounter statistics = ConcurrentReferenceHashMap.this.statistics;
+				if (statistics != null) {
+					statistics.resizes.increment();
+					statistics.purged.add(dropped);
+				}
+			}
+		}
+
+		/**
+		 * Move the entries of this segment to two new segments that each use one more
+		 * high order hash bit, and retire this segment. Must be called with the lock held.
+		 * @return the segment for keys with the next hash bit clear, followed by the one
+		 * for keys with that bit set
+		 */
+		Segment[] split() {
+			AtomicReferenceArray<Reference<K, V>> references = this.references;
+			int bit = 1 << (31 - this.depth);
+			int[] counts = new int[2];
+			for (int i = 0; i < references.length(); i++) {
+				for (Reference<K, V> ref = references.get(i); ref != null; ref = ref.getNext()) {
+					Entry<K, V> entry = ref.get();
+					if (entry != null && !entry.isReleased()) {
+						counts[(ref.getHash() & bit) == 0 ? 0 : 1]++;
+					}
+				}
+			}
+			// Split this segment's share exactly, leaving each half room for the entries it receives
+			int lowerMaximumCount = this.maximumCount;
+			int upperMaximumCount = this.maximumCount;
+			if (ConcurrentReferenceHashMap.this.maximumSize > 0) {
+				lowerMaximumCount = Math.max(Math.min(Math.max(this.maximumCount / 2, counts[0]),
+						this.maximumCount - counts[1]), 0);
+				upperMaximumCount = this.maximumCount - lowerMaximumCount;
+			}
+			Segment[] halves = createSegmentArray(2);
+			halves[0] = new Segment(references.length(), this.resizeThreshold, this.depth + 1, lowerMaximumCount);
+			halves[1] = new Segment(references.length(), this.resizeThreshold, this.depth + 1, upperMaximumCount);
+			for (int i = 0; i < references.length(); i++) {
+				for (Reference<K, V> ref = references.get(i); ref != null; ref = ref.getNext()) {
+					Entry<K, V> entry = ref.get();
+					if (entry != null && !entry.isReleased()) {
+						halves[(ref.getHash() & bit) == 0 ? 0 : 1].add(entry, ref.getHash());
+					}
+				}
+			}
+			this.retired = true;
+			return halves;
+		}
+
+		/**
+		 * Link an entry into a segment that is not yet visible to other threads.
+		 */
+		private void add(Entry<K, V> entry, int hash) {
+			AtomicReferenceArray<Reference<K, V>> references = this.references;
+			int index = getIndex(hash, references);
+			references.set(index, this.referenceManager.createReference(entry, hash, references.get(index)));
+			this.count.incrementAndGet();
+		}
+
+		/**
+		 * Put a value into this segment without locking it, used for {@link WriteMode#CAS}.
+		 * A new entry is linked in with a compare-and-set on the head of its bucket,
+		 * an existing entry is updated with a compare-and-set on its value.
+		 * @param hash the hash of the key
+		 * @param key the key
+		 * @param value the value
+		 * @param overwriteExisting if an existing value should be replaced
+		 * @return the previous value, or {@code null} if none
+		 */
+		@Nullable
+		public V putWithoutLock(int hash, @Nullable K key, @Nullable V value, boolean overwriteExisting) {
+			restructureIfNecessary(true);
+			Entry<K, V> newEntry = null;
+			AtomicReferenceArray<Reference<K, V>> references = this.references;
+			while (true) {
+				int index = getIndex(hash, references);
+				Reference<K, V> head = references.get(index);
+				if (head instanceof ForwardingReference) {
+					references = ((ForwardingReference<K, V>) head).getNextTable();
+					continue;
+				}
+				Reference<K, V> ref = findInChain(head, key, hash);
+				Entry<K, V> entry = (ref != null ? ref.get() : null);
+				if (entry != null) {
+					Object oldValue = (overwriteExisting ? entry.swapValue(value) : entry.getRawValue());
+					if (oldValue != Entry.RELEASED) {
+						if (newEntry != null && ConcurrentReferenceHashMap.this.pinnedEntries != null) {
+							// Linked in concurrently by another writer after all
+							unpin(newEntry);
+						}
+						return asValue(oldValue);
+					}
+					// Removed concurrently: start again from the current table
+					references = this.references;
+					continue;
+				}
+				if (newEntry == null) {
+					newEntry = this.referenceManager.createEntry(key, value);
+				}
+				Reference<K, V> newReference = this.referenceManager.createReference(newEntry, hash, head);
+				if (references.compareAndSet(index, head, newReference)) {
+					this.count.incrementAndGet();
+					if (this.sketch != null) {
+						lock();
+						try {
+							evictIfNecessary(newReference);
+						}
+						finally {
+							unlock();
+						}
+					}
+					return null;
+				}
+			}
+		}
+
+		/**
+		 * Remove an entry from this segment without locking it, used for {@link WriteMode#CAS}.
+		 * The entry is claimed with a compare-and-set on its value and then released so that
+		 * its reference gets purged.
+		 * @param hash the hash of the key
+		 * @param key the key
+		 * @param expectedValue the value that the entry must hold if {@code matchValue}
+		 * @param matchValue if the current value must be equal to {@code expectedValue}
+		 * @return the removed value, or {@code NO_MATCH} if nothing was removed
+		 */
+		@Nullable
+		public Object removeWithoutLock(int hash, @Nullable Object key,
+				@Nullable Object expectedValue, boolean matchValue) {
+
+			Object result = NO_MATCH;
+			if (this.count.get() > 0) {
+				while (true) {
+					Reference<K, V> ref = getReference(key, hash, Restructure.NEVER);
+					Entry<K, V> entry = (ref != null ? ref.get() : null);
+					if (entry == null) {
+						break;
+					}
+					Object value = entry.getRawValue();
+					if (value == Entry.RELEASED) {
+						continue;
+					}
+					if (matchValue && !ObjectUtils.nullSafeEquals(value, expectedValue)) {
+						break;
+					}
+					if (entry.compareAndSetValue(value, Entry.RELEASED)) {
+						ref.release();
+						releaseMovedReference(entry, hash, ref);
+						recordRemoval();
+						result = value;
+						break;
+					}
+				}
+			}
+			restructureIfNecessary(false);
+			return result;
+		}
+
+		/**
+		 * Replace the value of an entry in this segment without locking it, used for
+		 * {@link WriteMode#CAS}.
+		 * @param hash the hash of the key
+		 * @param key the key
+		 * @param expectedValue the value that the entry must hold if {@code matchValue}
+		 * @param matchValue if the current value must be equal to {@code expectedValue}
+		 * @param newValue the new value
+		 * @return the replaced value, or {@code NO_MATCH} if nothing was replaced
+		 */
+		@Nullable
+		public Object replaceWithoutLock(int hash, @Nullable Object key,
+				@Nullable Object expectedValue, boolean matchValue, @Nullable V newValue) {
+
+			restructureIfNecessary(false);
+			if (this.count.get() == 0) {
+				return NO_MATCH;
+			}
+			while (true) {
+				Reference<K, V> ref = getReference(key, hash, Restructure.NEVER);
+				Entry<K, V> entry = (ref != null ? ref.get() : null);
+				if (entry == null) {
+					return NO_MATCH;
+				}
+				Object value = entry.getRawValue();
+				if (value == Entry.RELEASED) {
+					continue;
+				}
+				if (matchValue && !ObjectUtils.nullSafeEquals(value, expectedValue)) {
+					return NO_MATCH;
+				}
+				if (entry.compareAndSetValue(value, newValue)) {
+					return value;
+				}
 			}
 		}
 
@@ -545,14 +1949,27 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 		 * Clear all items from this segment.
 		 */
 		public void clear() {
-			if (this.count == 0) {
+			if (this.count.get() == 0) {
 				return;
 			}
 			lock();
 			try {
-				this.references = createReferenceArray(this.initialSize);
-				this.resizeThreshold = (int) (this.references.length * getLoadFactor());
-				this.count = 0;
+				AtomicReferenceArray<Reference<K, V>> references = this.references;
+				AtomicReferenceArray<Reference<K, V>> cleared = createReferenceArray(this.initialSize);
+				ForwardingReference<K, V> forwarding = new ForwardingReference<>(cleared);
+				int removed = 0;
+				for (int i = 0; i < references.length(); i++) {
+					Reference<K, V> head = references.getAndSet(i, forwarding);
+					for (Reference<K, V> ref = head; ref != null; ref = ref.getNext()) {
+						if (ConcurrentReferenceHashMap.this.pinnedEntries != null) {
+							ref.release();
+						}
+						removed++;
+					}
+				}
+				this.references = cleared;
+				this.resizeThreshold = (int) (cleared.length() * getLoadFactor());
+				this.count.addAndGet(-removed);
 			}
 			finally {
 				unlock();
@@ -560,84 +1977,196 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 		}
 
 		/**
-		 * Restructure the underlying data structure when it becomes necessary. This
-		 * method can increase the size of the references table as well as purge any
-		 * references that have been garbage collected.
-		 * @param allowResize if resizing is permitted
+		 * Restructure the underlying data structure when it becomes necessary. This
+		 * method can increase the size of the references table as well as purge any
+		 * references that have been garbage collected.
+		 * <p>Purged references are unlinked from their chains in place; the table is only
+		 * rebuilt, re-creating the references of live entries, when it is resized.
+		 * Both are safe against concurrent {@link WriteMode#CAS} writers, which only
+		 * ever replace the head of a chain.
+		 * @param allowResize if resizing is permitted
+		 * @return the number of references that were purged
+		 */
+		protected final int restructureIfNecessary(boolean allowResize) {
+			int currCount = this.count.get();
+			boolean needsResize = (currCount > 0 && currCount >= this.resizeThreshold);
+			Reference<K, V> ref = this.referenceManager.pollForPurge();
+			if (ref != null || (needsResize && allowResize)) {
+				lock();
+				try {
+					int purged = 0;
+					while (ref != null) {
+						if (unlink(ref)) {
+							purged++;
+						}
+						ref = this.referenceManager.pollForPurge();
+					}
+					int countAfterPurge = this.count.addAndGet(-purged);
+
+					// Recalculate taking into account count inside lock and purged items
+					needsResize = (countAfterPurge > 0 && countAfterPurge >= this.resizeThreshold);
+					boolean resizing = (allowResize && needsResize && this.references.length() < MAXIMUM_SEGMENT_SIZE);
+					if (resizing) {
+						purged += resize(this.references.length() << 1);
+					}
+					StatisticsCounter statistics = ConcurrentReferenceHashMap.this.statistics;
+					if (statistics != null) {
+						statistics.restructures.increment();
+						statistics.purged.add(purged);
+						if (resizing) {
+							statistics.resizes.increment();
+						}
+					}
+					return purged;
+				}
+				finally {
+					unlock();
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * Unlink a purged reference from its chain. Must be called with the lock held.
+		 * @param ref the reference to unlink
+		 * @return {@code true} if the reference was found in the current table
+		 */
+		private boolean unlink(Reference<K, V> ref) {
+			AtomicReferenceArray<Reference<K, V>> references = this.references;
+			int index = getIndex(ref.getHash(), references);
+			while (true) {
+				Reference<K, V> head = references.get(index);
+				if (head == ref) {
+					if (references.compareAndSet(index, head, ref.getNext())) {
+						return true;
+					}
+					// A new head has been linked in concurrently
+					continue;
+				}
+				Reference<K, V> previous = head;
+				while (previous != null && previous.getNext() != ref) {
+					previous = previous.getNext();
+				}
+				if (previous == null) {
+					// Already dropped by a resize or a clear
+					return false;
+				}
+				previous.setNext(ref.getNext());
+				return true;
+			}
+		}
+
+		/**
+		 * Move all live entries to a larger table, leaving a {@link ForwardingReference}
+		 * in every bucket of the current table. Must be called with the lock held.
+		 * @param size the size of the new table, a larger power of two
+		 * @return the number of references dropped because their entry was no longer available
 		 */
-		protected final void restructureIfNecessary(boolean allowResize) {
-			int currCount = this.count;
-			boolean needsResize = (currCount > 0 && currCount >= this.resizeThreshold);
-			Reference<K, V> ref = this.referenceManager.pollForPurge();
-			if (ref != null || (needsResize && allowResize)) {
-				lock();
-				try {
-					int countAfterRestructure = this.count;
-					Set<Reference<K, V>> toPurge = Collections.emptySet();
-					if (ref != null) {
-						toPurge = new HashSet<>();
-						while (ref != null) {
-							toPurge.add(ref);
-							ref = this.referenceManager.pollForPurge();
+		private int resize(int size) {
+			AtomicReferenceArray<Reference<K, V>> references = this.references;
+			AtomicReferenceArray<Reference<K, V>> resized = createReferenceArray(size);
+			ForwardingReference<K, V> forwarding = new ForwardingReference<>(resized);
+			int dropped = 0;
+			for (int i = 0; i < references.length(); i++) {
+				// The entries of bucket i move to the buckets i, i + length, i + 2 * length...
+				while (true) {
+					Reference<K, V> head = references.get(i);
+					int droppedInBucket = 0;
+					for (Reference<K, V> ref = head; ref != null; ref = ref.getNext()) {
+						Entry<K, V> entry = ref.get();
+						if (entry != null && !entry.isReleased()) {
+							int index = getIndex(ref.getHash(), resized);
+							resized.set(index, this.referenceManager.createReference(entry, ref.getHash(), resized.get(index)));
 						}
-					}
-					countAfterRestructure -= toPurge.size();
-
-					// Recalculate taking into account count inside lock and items that
-					// will be purged
-					needsResize = (countAfterRestructure > 0 && countAfterRestructure >= this.resizeThreshold);
-					boolean resizing = false;
-					int restructureSize = this.references.length;
-					if (allowResize && needsResize && restructureSize < MAXIMUM_SEGMENT_SIZE) {
-						restructureSize <<= 1;
-						resizing = true;
-					}
-
-					// Either create a new table or reuse the existing one
-					Reference<K, V>[] restructured =
-							(resizing ? createReferenceArray(restructureSize) : this.references);
-
-					// Restructure
-					for (int i = 0; i < this.references.length; i++) {
-						ref = this.references[i];
-						if (!resizing) {
-							restructured[i] = null;
+						else {
+							droppedInBucket++;
 						}
-						while (ref != null) {
-							if (!toPurge.contains(ref)) {
-								Entry<K, V> entry = ref.get();
-								if (entry != null) {
-									int index = getIndex(ref.getHash(), restructured);
-									restructured[index] = this.referenceManager.createReference(
-											entry, ref.getHash(), restructured[index]);
-								}
-							}
-							ref = ref.getNext();
+					}
+					// Retry the bucket if a new head has been linked in concurrently
+					if (references.compareAndSet(i, head, forwarding)) {
+						// Entries removed while being copied are only released in this table
+						for (int index = i; index < size; index += references.length()) {
+							droppedInBucket += dropReleased(resized, index);
 						}
+						dropped += droppedInBucket;
+						break;
+					}
+					for (int index = i; index < size; index += references.length()) {
+						resized.set(index, null);
 					}
+				}
+			}
+			this.references = resized;
+			this.resizeThreshold = (int) (resized.length() * getLoadFactor());
+			this.count.addAndGet(-dropped);
+			return dropped;
+		}
 
-					// Replace volatile members
-					if (resizing) {
-						this.references = restructured;
-						this.resizeThreshold = (int) (this.references.length * getLoadFactor());
+		/**
+		 * Unlink the references to released entries from a bucket of a table that
+		 * {@link WriteMode#CAS} writers may already be using. Must be called with the lock held.
+		 * @return the number of references unlinked
+		 */
+		private int dropReleased(AtomicReferenceArray<Reference<K, V>> references, int index) {
+			int dropped = 0;
+			Reference<K, V> previous = null;
+			Reference<K, V> ref = references.get(index);
+			while (ref != null) {
+				Reference<K, V> next = ref.getNext();
+				Entry<K, V> entry = ref.get();
+				if (entry != null && entry.isReleased()) {
+					if (previous != null) {
+						previous.setNext(next);
 					}
-					this.count = Math.max(countAfterRestructure, 0);
+					else if (!references.compareAndSet(index, ref, next)) {
+						// A new head has been linked in concurrently: start again
+						ref = references.get(index);
+						continue;
+					}
+					// Unpins the entry again if the copy pinned it
+					ref.release();
+					dropped++;
 				}
-				finally {
-					unlock();
+				else {
+					previous = ref;
+				}
+				ref = next;
+			}
+			return dropped;
+		}
+
+		/**
+		 * Release the reference that a concurrent {@link #resize} created for an entry
+		 * that has just been removed through another reference, so that it gets purged
+		 * from the current table rather than staying counted until the next resize.
+		 * @param entry the removed entry
+		 * @param hash the hash of its key
+		 * @param released the reference that has already been released
+		 */
+		private void releaseMovedReference(Entry<K, V> entry, int hash, Reference<K, V> released) {
+			AtomicReferenceArray<Reference<K, V>> references = this.references;
+			Reference<K, V> head = references.get(getIndex(hash, references));
+			while (head instanceof ForwardingReference) {
+				references = ((ForwardingReference<K, V>) head).getNextTable();
+				head = references.get(getIndex(hash, references));
+			}
+			for (Reference<K, V> ref = head; ref != null; ref = ref.getNext()) {
+				if (ref != released && ref.get() == entry) {
+					ref.release();
+					return;
 				}
 			}
 		}
 
 		@Nullable
-		private Reference<K, V> findInChain(Reference<K, V> ref, @Nullable Object key, int hash) {
+		private Reference<K, V> findInChain(@Nullable Reference<K, V> ref, @Nullable Object key, int hash) {
 			Reference<K, V> currRef = ref;
 			while (currRef != null) {
 				if (currRef.getHash() == hash) {
 					Entry<K, V> entry = currRef.get();
-					if (entry != null) {
+					if (entry != null && !entry.isReleased()) {
 						K entryKey = entry.getKey();
-						if (ObjectUtils.nullSafeEquals(entryKey, key)) {
+						if (isSameKey(entryKey, key)) {
 							return currRef;
 						}
 					}
@@ -647,27 +2176,40 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 			return null;
 		}
 
-		@SuppressWarnings({"rawtypes", "unchecked"})
-		private Reference<K, V>[] createReferenceArray(int size) {
-			return new Reference[size];
+		private AtomicReferenceArray<Reference<K, V>> createReferenceArray(int size) {
+			return new AtomicReferenceArray<>(size);
 		}
 
-		private int getIndex(int hash, Reference<K, V>[] references) {
-			return (hash & (references.length - 1));
+		private int getIndex(int hash, AtomicReferenceArray<Reference<K, V>> references) {
+			return (hash & (references.length() - 1));
 		}
 
 		/**
 		 * Return the size of the current references array.
 		 */
 		public final int getSize() {
-			return this.references.length;
+			return this.references.length();
 		}
 
 		/**
 		 * Return the total number of references in this segment.
 		 */
 		public final int getCount() {
-			return this.count;
+			return this.count.get();
+		}
+
+		/**
+		 * Return the number of high order hash bits shared by all keys in this segment.
+		 */
+		public final int getDepth() {
+			return this.depth;
+		}
+
+		/**
+		 * Return whether this segment has been split and no longer receives updates.
+		 */
+		public final boolean isRetired() {
+			return this.retired;
 		}
 	}
 
@@ -697,6 +2239,13 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 		@Nullable
 		Reference<K, V> getNext();
 
+		/**
+		 * Replace the next reference in the chain. Called with the segment lock held
+		 * in order to unlink a purged reference from the chain.
+		 * @param next the new next reference, or {@code null} if none
+		 */
+		void setNext(@Nullable Reference<K, V> next);
+
 		/**
 		 * Release this entry and ensure that it will be returned from
 		 * {@code ReferenceManager#pollForPurge()}.
@@ -712,40 +2261,126 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 	 */
 	protected static final class Entry<K, V> implements Map.Entry<K, V> {
 
+		/**
+		 * Value held by an entry that has been removed from a {@link WriteMode#CAS} map.
+		 */
+		static final Object RELEASED = new Object();
+
+		@SuppressWarnings("rawtypes")
+		private static final AtomicReferenceFieldUpdater<Entry, Object> VALUE_UPDATER =
+				AtomicReferenceFieldUpdater.newUpdater(Entry.class, Object.class, "value");
+
+		/**
+		 * The key, or a {@link WeakKey} holding it for {@link ReferenceType#WEAK_KEYS}.
+		 */
 		@Nullable
-		private final K key;
+		private final Object key;
 
 		@Nullable
-		private volatile V value;
+		private volatile Object value;
 
 		public Entry(@Nullable K key, @Nullable V value) {
 			this.key = key;
 			this.value = value;
 		}
 
+		Entry(WeakKey key, @Nullable V value) {
+			this.key = key;
+			this.value = value;
+		}
+
 		@Override
 		@Nullable
+		@SuppressWarnings("unchecked")
 		public K getKey() {
-			return this.key;
+			Object key = this.key;
+			if (key instanceof WeakKey) {
+				key = ((WeakKey) key).get();
+				return (key != NULL_KEY ? (K) key : null);
+			}
+			return (K) key;
+		}
+
+		/**
+		 * Return the {@link WeakKey} holding the key, or {@code null} if the key is
+		 * held strongly.
+		 */
+		@Nullable
+		WeakKey getWeakKey() {
+			return (this.key instanceof WeakKey ? (WeakKey) this.key : null);
 		}
 
 		@Override
 		@Nullable
+		@SuppressWarnings("unchecked")
 		public V getValue() {
-			return this.value;
+			Object value = this.value;
+			return (value != RELEASED ? (V) value : null);
 		}
 
 		@Override
 		@Nullable
+		@SuppressWarnings("unchecked")
 		public V setValue(@Nullable V value) {
-			V previous = this.value;
-			this.value = value;
-			return previous;
+			Object previous = swapValue(value);
+			return (previous != RELEASED ? (V) previous : null);
+		}
+
+		/**
+		 * Return the current value, which may be {@link #RELEASED}.
+		 */
+		@Nullable
+		Object getRawValue() {
+			return this.value;
+		}
+
+		/**
+		 * Atomically replace the value unless the entry has been released.
+		 * @return the previous value, or {@link #RELEASED} if nothing was replaced
+		 */
+		@Nullable
+		Object swapValue(@Nullable V value) {
+			while (true) {
+				Object previous = this.value;
+				if (previous == RELEASED || VALUE_UPDATER.compareAndSet(this, previous, value)) {
+					return previous;
+				}
+			}
+		}
+
+		/**
+		 * Atomically replace the value if it is still the expected one.
+		 */
+		boolean compareAndSetValue(@Nullable Object expect, @Nullable Object update) {
+			return VALUE_UPDATER.compareAndSet(this, expect, update);
+		}
+
+		/**
+		 * Return whether the entry has been removed from a {@link WriteMode#CAS} map.
+		 */
+		boolean isReleased() {
+			return (this.value == RELEASED);
+		}
+
+		/**
+		 * Atomically mark the entry as removed.
+		 * @return {@code true} if this call removed the entry
+		 */
+		boolean release() {
+			while (true) {
+				Object value = this.value;
+				if (value == RELEASED) {
+					return false;
+				}
+				if (VALUE_UPDATER.compareAndSet(this, value, RELEASED)) {
+					return true;
+				}
+			}
 		}
 
 		@Override
 		public String toString() {
-			return (this.key + "=" + this.value);
+			return (getKey() + "=" + getValue());
 		}
 
 		@Override
@@ -764,7 +2399,7 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 
 		@Override
 		public final int hashCode() {
-			return (ObjectUtils.nullSafeHashCode(this.key) ^ ObjectUtils.nullSafeHashCode(this.value));
+			return (ObjectUtils.nullSafeHashCode(getKey()) ^ ObjectUtils.nullSafeHashCode(getValue()));
 		}
 	}
 
@@ -797,39 +2432,341 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 			return execute(ref, entry);
 		}
 
-		/**
-		 * Convenience method that can be used for tasks that do not need access to {@link Entries}.
-		 * @param ref the found reference (or {@code null})
-		 * @param entry the found entry (or {@code null})
-		 * @return the result of the task
-		 * @see #execute(Reference, Entry, Entries)
-		 */
-		@Nullable
-		protected T execute(@Nullable Reference<K, V> ref, @Nullable Entry<K, V> entry) {
-			return null;
+		/**
+		 * Convenience method that can be used for tasks that do not need access to {@link Entries}.
+		 * @param ref the found reference (or {@code null})
+		 * @param entry the found entry (or {@code null})
+		 * @return the result of the task
+		 * @see #execute(Reference, Entry, Entries)
+		 */
+		@Nullable
+		protected T execute(@Nullable Reference<K, V> ref, @Nullable Entry<K, V> entry) {
+			return null;
+		}
+	}
+
+
+	/**
+	 * Various options supported by a {@code Task}.
+	 */
+	private enum TaskOption {
+
+		RESTRUCTURE_BEFORE, RESTRUCTURE_AFTER, SKIP_IF_EMPTY, RESIZE
+	}
+
+
+	/**
+	 * Allows a task access to {@link ConcurrentReferenceHashMap.Segment} entries.
+	 */
+	private abstract class Entries {
+
+		/**
+		 * Add a new entry with the specified value.
+		 * @param value the value to add
+		 */
+		public abstract void add(@Nullable V value);
+	}
+
+
+	/**
+	 * Keys of a bulk operation with their hashes and, for puts, their values.
+	 */
+	private static final class Batch {
+
+		final int[] hashes;
+
+		final Object[] keys;
+
+		final Object[] values;
+
+		int size;
+
+		Batch(int capacity) {
+			this.hashes = new int[capacity];
+			this.keys = new Object[capacity];
+			this.values = new Object[capacity];
+		}
+
+		void add(int hash, @Nullable Object key, @Nullable Object value) {
+			this.hashes[this.size] = hash;
+			this.keys[this.size] = key;
+			this.values[this.size] = value;
+			this.size++;
+		}
+	}
+
+
+	/**
+	 * Snapshot of the statistics of a {@link ConcurrentReferenceHashMap}.
+	 * @see ConcurrentReferenceHashMap#getStatistics()
+	 */
+	public static final class Statistics {
+
+		private final long hitCount;
+
+		private final long missCount;
+
+		private final long putCount;
+
+		private final long removalCount;
+
+		private final long evictionCount;
+
+		private final long purgedCount;
+
+		private final long restructureCount;
+
+		private final long resizeCount;
+
+		private final long lockHeldNanos;
+
+		Statistics(long hitCount, long missCount, long putCount, long removalCount, long evictionCount,
+				long purgedCount, long restructureCount, long resizeCount, long lockHeldNanos) {
+
+			this.hitCount = hitCount;
+			this.missCount = missCount;
+			this.putCount = putCount;
+			this.removalCount = removalCount;
+			this.evictionCount = evictionCount;
+			this.purgedCount = purgedCount;
+			this.restructureCount = restructureCount;
+			this.resizeCount = resizeCount;
+			this.lockHeldNanos = lockHeldNanos;
+		}
+
+		/**
+		 * Return the number of lookups that found an entry.
+		 */
+		public long getHitCount() {
+			return this.hitCount;
+		}
+
+		/**
+		 * Return the number of lookups that did not find an entry.
+		 */
+		public long getMissCount() {
+			return this.missCount;
+		}
+
+		/**
+		 * Return the ratio of lookups that found an entry, or {@code 1.0} if there were none.
+		 */
+		public double getHitRate() {
+			long lookups = this.hitCount + this.missCount;
+			return (lookups == 0 ? 1.0 : (double) this.hitCount / lookups);
+		}
+
+		/**
+		 * Return the number of {@code put} and {@code putIfAbsent} calls.
+		 */
+		public long getPutCount() {
+			return this.putCount;
+		}
+
+		/**
+		 * Return the number of entries removed explicitly.
+		 */
+		public long getRemovalCount() {
+			return this.removalCount;
+		}
+
+		/**
+		 * Return the number of entries evicted because of the maximum size.
+		 */
+		public long getEvictionCount() {
+			return this.evictionCount;
+		}
+
+		/**
+		 * Return the number of references purged, either because they were released
+		 * by an explicit removal or because the garbage collector cleared them.
+		 */
+		public long getPurgedCount() {
+			return this.purgedCount;
+		}
+
+		/**
+		 * Return the number of entries purged because the garbage collector cleared them,
+		 * derived from the purged references that were not released by a removal.
+		 */
+		public long getCollectedCount() {
+			return Math.max(this.purgedCount - this.removalCount, 0);
+		}
+
+		/**
+		 * Return the number of times a segment was locked in order to restructure it.
+		 */
+		public long getRestructureCount() {
+			return this.restructureCount;
+		}
+
+		/**
+		 * Return the number of times a segment table was resized.
+		 */
+		public long getResizeCount() {
+			return this.resizeCount;
+		}
+
+		/**
+		 * Return the total time that segment locks were held, in nanoseconds.
+		 */
+		public long getLockHeldNanos() {
+			return this.lockHeldNanos;
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + this.hitCount + ", misses=" + this.missCount + ", puts=" + this.putCount +
+					", removals=" + this.removalCount + ", evictions=" + this.evictionCount +
+					", collected=" + getCollectedCount() + ", restructures=" + this.restructureCount +
+					", resizes=" + this.resizeCount + ", lockHeldNanos=" + this.lockHeldNanos;
+		}
+	}
+
+
+	/**
+	 * Striped counters behind {@link Statistics}.
+	 */
+	private static final class StatisticsCounter {
+
+		final LongAdder hits = new LongAdder();
+
+		final LongAdder misses = new LongAdder();
+
+		final LongAdder puts = new LongAdder();
+
+		final LongAdder removals = new LongAdder();
+
+		final LongAdder evictions = new LongAdder();
+
+		final LongAdder purged = new LongAdder();
+
+		final LongAdder restructures = new LongAdder();
+
+		final LongAdder resizes = new LongAdder();
+
+		final LongAdder lockHeldNanos = new LongAdder();
+
+		Statistics snapshot() {
+			return new Statistics(this.hits.sum(), this.misses.sum(), this.puts.sum(), this.removals.sum(),
+					this.evictions.sum(), this.purged.sum(), this.restructures.sum(), this.resizes.sum(),
+					this.lockHeldNanos.sum());
+		}
+	}
+
+
+	/**
+	 * Count-min sketch of the access frequencies of the keys in a {@link Segment}, with
+	 * four 4-bit counters per key. All counters are halved once the number of recorded
+	 * accesses reaches ten times the maximum size, so that old popularity fades.
+	 * <p>Updates are not atomic: a concurrent update may occasionally be lost, which only
+	 * makes the estimates slightly lower.
+	 */
+	private static final class FrequencySketch {
+
+		private static final long[] SEEDS = {
+				0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+		private static final long RESET_MASK = 0x7777777777777777L;
+
+		private static final long ONE_MASK = 0x1111111111111111L;
+
+		private final long[] table;
+
+		private final int sampleSize;
+
+		private int size;
+
+		public FrequencySketch(int maximumSize) {
+			int length = 1 << calculateShift(Math.max(maximumSize, 8), 1 << 30);
+			this.table = new long[length];
+			this.sampleSize = (int) Math.min(10L * maximumSize, Integer.MAX_VALUE);
+		}
+
+		/**
+		 * Return the estimated number of accesses to the given hash, at most 15.
+		 */
+		public int frequency(int hash) {
+			int start = (hash & 3) << 2;
+			int frequency = 15;
+			for (int i = 0; i < 4; i++) {
+				int index = indexOf(hash, i);
+				int count = (int) ((this.table[index] >>> ((start + i) << 2)) & 0xfL);
+				frequency = Math.min(frequency, count);
+			}
+			return frequency;
+		}
+
+		/**
+		 * Record an access to the given hash.
+		 */
+		public void increment(int hash) {
+			int start = (hash & 3) << 2;
+			boolean added = false;
+			for (int i = 0; i < 4; i++) {
+				added |= incrementAt(indexOf(hash, i), start + i);
+			}
+			if (added && ++this.size >= this.sampleSize) {
+				reset();
+			}
+		}
+
+		private boolean incrementAt(int index, int counter) {
+			int offset = counter << 2;
+			long mask = (0xfL << offset);
+			if ((this.table[index] & mask) != mask) {
+				this.table[index] += (1L << offset);
+				return true;
+			}
+			return false;
+		}
+
+		private int indexOf(int hash, int i) {
+			long mixed = (hash + SEEDS[i]) * SEEDS[i];
+			mixed += (mixed >>> 32);
+			return ((int) mixed) & (this.table.length - 1);
+		}
+
+		private void reset() {
+			int odd = 0;
+			for (int i = 0; i < this.table.length; i++) {
+				odd += Long.bitCount(this.table[i] & ONE_MASK);
+				this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+			}
+			this.size = (this.size >>> 1) - (odd >>> 2);
 		}
 	}
 
 
 	/**
-	 * Various options supported by a {@code Task}.
+	 * A compute operation in progress for a key, which other compute operations for
+	 * the same key wait for.
 	 */
-	private enum TaskOption {
+	private static final class Computation {
 
-		RESTRUCTURE_BEFORE, RESTRUCTURE_AFTER, SKIP_IF_EMPTY, RESIZE
-	}
+		private final Thread owner = Thread.currentThread();
 
+		private boolean complete;
 
-	/**
-	 * Allows a task access to {@link ConcurrentReferenceHashMap.Segment} entries.
-	 */
-	private abstract class Entries {
+		public synchronized void complete() {
+			this.complete = true;
+			notifyAll();
+		}
 
-		/**
-		 * Add a new entry with the specified value.
-		 * @param value the value to add
-		 */
-		public abstract void add(@Nullable V value);
+		public synchronized void await() {
+			boolean interrupted = false;
+			while (!this.complete) {
+				try {
+					wait();
+				}
+				catch (InterruptedException ex) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
 	}
 
 
@@ -843,6 +2780,11 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 			return new EntryIterator();
 		}
 
+		@Override
+		public Spliterator<Map.Entry<K, V>> spliterator() {
+			return new EntrySpliterator(1);
+		}
+
 		@Override
 		public boolean contains(@Nullable Object o) {
 			if (o instanceof Map.Entry<?, ?>) {
@@ -882,16 +2824,24 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 	 */
 	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
 
+		private final Segment[] segments = ConcurrentReferenceHashMap.this.segments;
+
 		private int segmentIndex;
 
 		private int referenceIndex;
 
 		@Nullable
-		private Reference<K, V>[] references;
+		private AtomicReferenceArray<Reference<K, V>> references;
 
 		@Nullable
 		private Reference<K, V> reference;
 
+		/**
+		 * Chains of buckets that were moved to a larger table while iterating.
+		 */
+		@Nullable
+		private Deque<Reference<K, V>> forwarded;
+
 		@Nullable
 		private Entry<K, V> next;
 
@@ -934,23 +2884,39 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 				this.reference = this.reference.getNext();
 			}
 			while (this.reference == null && this.references != null) {
-				if (this.referenceIndex >= this.references.length) {
+				if (this.forwarded != null && !this.forwarded.isEmpty()) {
+					this.reference = this.forwarded.poll();
+				}
+				else if (this.referenceIndex >= this.references.length()) {
 					moveToNextSegment();
 					this.referenceIndex = 0;
 				}
 				else {
-					this.reference = this.references[this.referenceIndex];
+					this.reference = this.references.get(this.referenceIndex);
 					this.referenceIndex++;
 				}
+				if (this.reference instanceof ForwardingReference) {
+					if (this.forwarded == null) {
+						this.forwarded = new ArrayDeque<>();
+					}
+					((ForwardingReference<K, V>) this.reference).addMovedHeads(
+							this.referenceIndex - 1, this.references.length(), this.forwarded);
+					this.reference = null;
+				}
 			}
 		}
 
 		private void moveToNextSegment() {
 			this.reference = null;
 			this.references = null;
-			if (this.segmentIndex < ConcurrentReferenceHashMap.this.segments.length) {
-				this.references = ConcurrentReferenceHashMap.this.segments[this.segmentIndex].references;
+			Segment previous = (this.segmentIndex > 0 ? this.segments[this.segmentIndex - 1] : null);
+			while (this.segmentIndex < this.segments.length) {
+				Segment segment = this.segments[this.segmentIndex];
 				this.segmentIndex++;
+				if (segment != previous) {
+					this.references = segment.references;
+					return;
+				}
 			}
 		}
 
@@ -962,6 +2928,160 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 	}
 
 
+	/**
+	 * Internal entry spliterator implementation. It splits the distinct segments in
+	 * halves first, and then the buckets of the table of a single segment.
+	 */
+	private final class EntrySpliterator implements Spliterator<Map.Entry<K, V>> {
+
+		private final Segment[] segments;
+
+		private int segmentIndex;
+
+		private int segmentFence;
+
+		@Nullable
+		private AtomicReferenceArray<Reference<K, V>> references;
+
+		private int referenceIndex;
+
+		private int referenceFence;
+
+		@Nullable
+		private Reference<K, V> reference;
+
+		/**
+		 * Chains of buckets that were moved to a larger table while traversing.
+		 */
+		@Nullable
+		private Deque<Reference<K, V>> forwarded;
+
+		private long estimatedSize;
+
+		/**
+		 * The estimated size below which this spliterator is not split any further.
+		 */
+		private final long parallelismThreshold;
+
+		public EntrySpliterator(long parallelismThreshold) {
+			Segment[] segments = ConcurrentReferenceHashMap.this.segments;
+			List<Segment> distinct = new ArrayList<>(segments.length);
+			for (Segment segment : segments) {
+				if (distinct.isEmpty() || distinct.get(distinct.size() - 1) != segment) {
+					distinct.add(segment);
+				}
+			}
+			this.segments = distinct.toArray(segments.clone());
+			this.segmentFence = distinct.size();
+			this.estimatedSize = size();
+			this.parallelismThreshold = parallelismThreshold;
+		}
+
+		private EntrySpliterator(EntrySpliterator parent, int segmentIndex, int segmentFence,
+				@Nullable AtomicReferenceArray<Reference<K, V>> references, int referenceIndex, int referenceFence) {
+
+			this.segments = parent.segments;
+			this.segmentIndex = segmentIndex;
+			this.segmentFence = segmentFence;
+			this.references = references;
+			this.referenceIndex = referenceIndex;
+			this.referenceFence = referenceFence;
+			this.estimatedSize = parent.estimatedSize;
+			this.parallelismThreshold = parent.parallelismThreshold;
+		}
+
+		@Override
+		@Nullable
+		public Spliterator<Map.Entry<K, V>> trySplit() {
+			if (this.estimatedSize < this.parallelismThreshold) {
+				return null;
+			}
+			if (this.segmentFence - this.segmentIndex > 1) {
+				int middle = (this.segmentIndex + this.segmentFence) >>> 1;
+				this.estimatedSize >>>= 1;
+				EntrySpliterator split = new EntrySpliterator(this, middle, this.segmentFence, null, 0, 0);
+				this.segmentFence = middle;
+				return split;
+			}
+			if (this.references == null && this.segmentIndex < this.segmentFence) {
+				moveToNextSegment();
+			}
+			if (this.references != null && this.referenceFence - this.referenceIndex > 1) {
+				int middle = (this.referenceIndex + this.referenceFence) >>> 1;
+				this.estimatedSize >>>= 1;
+				EntrySpliterator split = new EntrySpliterator(this, this.segmentFence, this.segmentFence,
+						this.references, middle, this.referenceFence);
+				this.referenceFence = middle;
+				return split;
+			}
+			return null;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Map.Entry<K, V>> action) {
+			Entry<K, V> entry = nextEntry();
+			if (entry == null) {
+				return false;
+			}
+			action.accept(entry);
+			return true;
+		}
+
+		@Nullable
+		private Entry<K, V> nextEntry() {
+			while (true) {
+				if (this.reference != null) {
+					Entry<K, V> entry = this.reference.get();
+					this.reference = this.reference.getNext();
+					if (entry != null && !entry.isReleased()) {
+						return entry;
+					}
+				}
+				else if (this.forwarded != null && !this.forwarded.isEmpty()) {
+					this.reference = this.forwarded.poll();
+				}
+				else if (this.references != null && this.referenceIndex < this.referenceFence) {
+					Reference<K, V> head = this.references.get(this.referenceIndex);
+					if (head instanceof ForwardingReference) {
+						if (this.forwarded == null) {
+							this.forwarded = new ArrayDeque<>();
+						}
+						((ForwardingReference<K, V>) head).addMovedHeads(
+								this.referenceIndex, this.references.length(), this.forwarded);
+					}
+					else {
+						this.reference = head;
+					}
+					this.referenceIndex++;
+				}
+				else if (this.segmentIndex < this.segmentFence) {
+					moveToNextSegment();
+				}
+				else {
+					return null;
+				}
+			}
+		}
+
+		private void moveToNextSegment() {
+			AtomicReferenceArray<Reference<K, V>> references = this.segments[this.segmentIndex++].references;
+			this.references = references;
+			this.referenceIndex = 0;
+			this.referenceFence = references.length();
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.estimatedSize;
+		}
+
+		@Override
+		public int characteristics() {
+			return (Spliterator.CONCURRENT | Spliterator.DISTINCT | Spliterator.NONNULL);
+		}
+	}
+
+
 	/**
 	 * The types of restructuring that can be performed.
 	 */
@@ -977,7 +3097,20 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 	 */
 	protected class ReferenceManager {
 
-		private final ReferenceQueue<Entry<K, V>> queue = new ReferenceQueue<>();
+		private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+		/**
+		 * Factory method used to create a new {@link Entry}.
+		 * @param key the key
+		 * @param value the value
+		 * @return a new {@link Entry}
+		 */
+		public Entry<K, V> createEntry(@Nullable K key, @Nullable V value) {
+			if (ConcurrentReferenceHashMap.this.referenceType == ReferenceType.WEAK_KEYS) {
+				return new Entry<>(new WeakKey(key, this.queue), value);
+			}
+			return new Entry<>(key, value);
+		}
 
 		/**
 		 * Factory method used to create a new {@link Reference}.
@@ -987,10 +3120,21 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 		 * @return a new {@link Reference}
 		 */
 		public Reference<K, V> createReference(Entry<K, V> entry, int hash, @Nullable Reference<K, V> next) {
-			if (ConcurrentReferenceHashMap.this.referenceType == ReferenceType.WEAK) {
-				return new WeakEntryReference<>(entry, hash, next, this.queue);
+			switch (ConcurrentReferenceHashMap.this.referenceType) {
+				case WEAK:
+					return new WeakEntryReference<>(entry, hash, next, this.queue);
+				case WEAK_KEYS:
+					WeakKey weakKey = entry.getWeakKey();
+					Assert.state(weakKey != null, "Entry without weak key");
+					WeakKeyEntryReference<K, V> reference = new WeakKeyEntryReference<>(entry, weakKey, hash, next);
+					weakKey.owner = reference;
+					return reference;
+				case EPHEMERON:
+					pin(entry);
+					return new EphemeronEntryReference(entry, hash, next, this.queue);
+				default:
+					return new SoftEntryReference<>(entry, hash, next, this.queue);
 			}
-			return new SoftEntryReference<>(entry, hash, next, this.queue);
 		}
 
 		/**
@@ -1003,7 +3147,79 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 		@SuppressWarnings("unchecked")
 		@Nullable
 		public Reference<K, V> pollForPurge() {
-			return (Reference<K, V>) this.queue.poll();
+			Object ref = this.queue.poll();
+			if (ref instanceof WeakKey) {
+				return (Reference<K, V>) ((WeakKey) ref).owner;
+			}
+			return (Reference<K, V>) ref;
+		}
+	}
+
+
+	/**
+	 * Internal {@link Reference} placed in every bucket of a table that has been
+	 * replaced, pointing readers and lock-free writers at the new table.
+	 */
+	private static final class ForwardingReference<K, V> implements Reference<K, V> {
+
+		private final AtomicReferenceArray<Reference<K, V>> nextTable;
+
+		public ForwardingReference(AtomicReferenceArray<Reference<K, V>> nextTable) {
+			this.nextTable = nextTable;
+		}
+
+		public AtomicReferenceArray<Reference<K, V>> getNextTable() {
+			return this.nextTable;
+		}
+
+		/**
+		 * Add the heads of the buckets that a resize moved the given bucket to. A table
+		 * that is not larger was created by {@code clear()}, so its entries are all new
+		 * and skipped.
+		 * @param index the index of the forwarded bucket
+		 * @param length the length of the table holding the forwarded bucket
+		 * @param heads the heads to add to
+		 */
+		public void addMovedHeads(int index, int length, Deque<Reference<K, V>> heads) {
+			AtomicReferenceArray<Reference<K, V>> nextTable = this.nextTable;
+			if (nextTable.length() <= length) {
+				return;
+			}
+			for (int i = (index & (length - 1)); i < nextTable.length(); i += length) {
+				Reference<K, V> head = nextTable.get(i);
+				if (head instanceof ForwardingReference) {
+					((ForwardingReference<K, V>) head).addMovedHeads(i, nextTable.length(), heads);
+				}
+				else if (head != null) {
+					heads.add(head);
+				}
+			}
+		}
+
+		@Override
+		@Nullable
+		public Entry<K, V> get() {
+			return null;
+		}
+
+		@Override
+		public int getHash() {
+			return 0;
+		}
+
+		@Override
+		@Nullable
+		public Reference<K, V> getNext() {
+			return null;
+		}
+
+		@Override
+		public void setNext(@Nullable Reference<K, V> next) {
+			throw new UnsupportedOperationException("Forwarding references are not chained");
+		}
+
+		@Override
+		public void release() {
 		}
 	}
 
@@ -1016,10 +3232,10 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 		private final int hash;
 
 		@Nullable
-		private final Reference<K, V> nextReference;
+		private volatile Reference<K, V> nextReference;
 
 		public SoftEntryReference(Entry<K, V> entry, int hash, @Nullable Reference<K, V> next,
-				ReferenceQueue<Entry<K, V>> queue) {
+				ReferenceQueue<? super Entry<K, V>> queue) {
 
 			super(entry, queue);
 			this.hash = hash;
@@ -1037,6 +3253,11 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 			return this.nextReference;
 		}
 
+		@Override
+		public void setNext(@Nullable Reference<K, V> next) {
+			this.nextReference = next;
+		}
+
 		@Override
 		public void release() {
 			enqueue();
@@ -1053,10 +3274,122 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 		private final int hash;
 
 		@Nullable
-		private final Reference<K, V> nextReference;
+		private volatile Reference<K, V> nextReference;
 
 		public WeakEntryReference(Entry<K, V> entry, int hash, @Nullable Reference<K, V> next,
-				ReferenceQueue<Entry<K, V>> queue) {
+				ReferenceQueue<? super Entry<K, V>> queue) {
+
+			super(entry, queue);
+			this.hash = hash;
+			this.nextReference = next;
+		}
+
+		@Override
+		public int getHash() {
+			return this.hash;
+		}
+
+		@Override
+		@Nullable
+		public Reference<K, V> getNext() {
+			return this.nextReference;
+		}
+
+		@Override
+		public void setNext(@Nullable Reference<K, V> next) {
+			this.nextReference = next;
+		}
+
+		@Override
+		public void release() {
+			enqueue();
+			clear();
+		}
+	}
+
+
+	/**
+	 * Weak reference to the key of an entry for {@link ReferenceType#WEAK_KEYS}. It is
+	 * enqueued once the key is collected, and leads the purge to the reference currently
+	 * holding its entry.
+	 */
+	private static final class WeakKey extends WeakReference<Object> {
+
+		@Nullable
+		volatile Reference<?, ?> owner;
+
+		public WeakKey(@Nullable Object key, ReferenceQueue<Object> queue) {
+			super(key != null ? key : NULL_KEY, queue);
+		}
+	}
+
+
+	/**
+	 * Internal {@link Reference} implementation for {@link ReferenceType#WEAK_KEYS},
+	 * holding its entry strongly for as long as the {@link WeakKey} of the entry has
+	 * not been cleared.
+	 */
+	private static final class WeakKeyEntryReference<K, V> implements Reference<K, V> {
+
+		private final Entry<K, V> entry;
+
+		private final WeakKey weakKey;
+
+		private final int hash;
+
+		@Nullable
+		private volatile Reference<K, V> nextReference;
+
+		public WeakKeyEntryReference(Entry<K, V> entry, WeakKey weakKey, int hash, @Nullable Reference<K, V> next) {
+			this.entry = entry;
+			this.weakKey = weakKey;
+			this.hash = hash;
+			this.nextReference = next;
+		}
+
+		@Override
+		@Nullable
+		public Entry<K, V> get() {
+			return (this.weakKey.get() != null ? this.entry : null);
+		}
+
+		@Override
+		public int getHash() {
+			return this.hash;
+		}
+
+		@Override
+		@Nullable
+		public Reference<K, V> getNext() {
+			return this.nextReference;
+		}
+
+		@Override
+		public void setNext(@Nullable Reference<K, V> next) {
+			this.nextReference = next;
+		}
+
+		@Override
+		public void release() {
+			this.weakKey.enqueue();
+			this.weakKey.clear();
+		}
+	}
+
+
+	/**
+	 * Internal {@link Reference} implementation for {@link ReferenceType#EPHEMERON},
+	 * weakly referencing an entry that is pinned to the class owning its key.
+	 */
+	private final class EphemeronEntryReference extends WeakReference<Entry<K, V>> implements Reference<K, V> {
+
+		private final int hash;
+
+		@Nullable
+		private volatile Reference<K, V> nextReference;
+
+		public EphemeronEntryReference(Entry<K, V> entry, int hash, @Nullable Reference<K, V> next,
+				ReferenceQueue<? super Entry<K, V>> queue) {
 
 			super(entry, queue);
 			this.hash = hash;
@@ -1074,8 +3407,17 @@ public class ConcurrentReferenceHashMap<K, V> extends AbstractMap<K, V> implemen
 			return this.nextReference;
 		}
 
+		@Override
+		public void setNext(@Nullable Reference<K, V> next) {
+			this.nextReference = next;
+		}
+
 		@Override
 		public void release() {
+			Entry<K, V> entry = get();
+			if (entry != null) {
+				unpin(entry);
+			}
 			enqueue();
 			clear();
 		}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.springframework.util;
+
+import com.springframework.lang.Nullable;
+import com.springframework.util.ConcurrentReferenceHashMap.ReferenceType;
+
+import java.lang.reflect.Array;
+import java.util.function.LongFunction;
+
+/**
+ * A concurrent map from primitive {@code long} keys to values, using
+ * {@link ReferenceType#SOFT soft} or {@linkplain ReferenceType#WEAK weak} references
+ * for its entries in the same way as {@link ConcurrentReferenceHashMap}. Keys are never
+ * boxed, which suits caches keyed by numeric ids; {@code int} keys can be widened.
+ *
+ * <p>Each segment uses open addressing, keeping the key of every slot in a
+ * {@code long} array next to the array of entry references, so that a lookup skips
+ * slots holding other keys without touching their reference or entry. Removed and
+ * garbage collected entries leave a tombstone until the segment is rehashed.
+ *
+ * <p>Reads never lock. Writes lock the segment they belong to, and also purge the
+ * garbage collected entries of that segment. {@code null} values are supported.
+ *
+ * <p><b>NOTE:</b> The use of references means that there is no guarantee that items
+ * placed into the map will be subsequently available. The garbage collector may discard
+ * references at any time, so it may appear that an unknown thread is silently removing
+ * entries.
+ *
+ * @param <V> the value type
+ * @see ConcurrentReferenceHashMap
+ */
+public class ConcurrentReferenceLongHashMap<V> {
+
+	private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+	private static final float DEFAULT_LOAD_FACTOR = 0.5f;
+
+	private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	private static final ReferenceType DEFAULT_REFERENCE_TYPE = ReferenceType.SOFT;
+
+	private static final int MAXIMUM_CONCURRENCY_LEVEL = 1 << 16;
+
+
+	/**
+	 * Array of segments indexed using the high order bits from the hash.
+	 */
+	private final Segment<V>[] segments;
+
+	/**
+	 * The number of high order hash bits used to index segments.
+	 */
+	private final int shift;
+
+
+	/**
+	 * Create a new {@code ConcurrentReferenceLongHashMap} instance.
+	 */
+	public ConcurrentReferenceLongHashMap() {
+		this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, DEFAULT_CONCURRENCY_LEVEL, DEFAULT_REFERENCE_TYPE);
+	}
+
+	/**
+	 * Create a new {@code ConcurrentReferenceLongHashMap} instance.
+	 * @param initialCapacity the initial capacity of the map
+	 */
+	public ConcurrentReferenceLongHashMap(int initialCapacity) {
+		this(initialCapacity, DEFAULT_LOAD_FACTOR, DEFAULT_CONCURRENCY_LEVEL, DEFAULT_REFERENCE_TYPE);
+	}
+
+	/**
+	 * Create a new {@code ConcurrentReferenceLongHashMap} instance.
+	 * @param initialCapacity the initial capacity of the map
+	 * @param referenceType the reference type used for entries (soft or weak)
+	 */
+	public ConcurrentReferenceLongHashMap(int initialCapacity, ReferenceType referenceType) {
+		this(initialCapacity, DEFAULT_LOAD_FACTOR, DEFAULT_CONCURRENCY_LEVEL, referenceType);
+	}
+
+	/**
+	 * Create a new {@code ConcurrentReferenceLongHashMap} instance.
+	 * @param initialCapacity the initial capacity of the map
+	 * @param loadFactor the load factor, between 0 and 1 exclusive. When the share of
+	 * used slots in a segment exceeds this value, the segment is rehashed.
+	 * @param concurrencyLevel the expected number of threads that will concurrently
+	 * write to the map
+	 * @param referenceType the reference type used for entries (soft or weak)
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentReferenceLongHashMap(
+			int initialCapacity, float loadFactor, int concurrencyLevel, ReferenceType referenceType) {
+
+		Assert.isTrue(initialCapacity >= 0, "Initial capacity must not be negative");
+		Assert.isTrue(loadFactor > 0f && loadFactor < 1f, "Load factor must be between 0 and 1");
+		Assert.isTrue(concurrencyLevel > 0, "Concurrency level must be positive");
+		Assert.notNull(referenceType, "Reference type must not be null");
+		Assert.isTrue(referenceType == ReferenceType.SOFT || referenceType == ReferenceType.WEAK,
+				"Only SOFT and WEAK reference types are supported");
+		this.shift = ConcurrentReferenceHashMap.calculateShift(concurrencyLevel, MAXIMUM_CONCURRENCY_LEVEL);
+		int size = 1 << this.shift;
+		int roundedUpSegmentCapacity = (int) ((initialCapacity + size - 1L) / size);
+		int initialSize = OpenAddressingSegment.getTableSize(roundedUpSegmentCapacity, loadFactor);
+		this.segments = (Segment<V>[]) Array.newInstance(Segment.class, size);
+		for (int i = 0; i < this.segments.length; i++) {
+			this.segments[i] = new Segment<>(initialSize, loadFactor, referenceType);
+		}
+	}
+
+
+	/**
+	 * Get the hash for a given key, mixing all of its bits into the result.
+	 * @param key the key to hash
+	 * @return the resulting hash code
+	 */
+	protected int getHash(long key) {
+		int hash = (int) (key ^ (key >>> 32));
+		hash ^= (hash >>> 16);
+		hash *= 0x85ebca6b;
+		hash ^= (hash >>> 13);
+		hash *= 0xc2b2ae35;
+		hash ^= (hash >>> 16);
+		return hash;
+	}
+
+	/**
+	 * Return the value for the given key.
+	 * @param key the key
+	 * @return the value, or {@code null} if the key is not present
+	 */
+	@Nullable
+	public V get(long key) {
+		LongEntry<V> entry = getEntry(key);
+		return (entry != null ? entry.value : null);
+	}
+
+	/**
+	 * Return the value for the given key, or the given default value if the key is
+	 * not present.
+	 * @param key the key
+	 * @param defaultValue the value to return if the key is not present
+	 */
+	@Nullable
+	public V getOrDefault(long key, @Nullable V defaultValue) {
+		LongEntry<V> entry = getEntry(key);
+		return (entry != null ? entry.value : defaultValue);
+	}
+
+	/**
+	 * Return whether the given key is present.
+	 * @param key the key
+	 */
+	public boolean containsKey(long key) {
+		return (getEntry(key) != null);
+	}
+
+	@Nullable
+	private LongEntry<V> getEntry(long key) {
+		int hash = getHash(key);
+		return getSegmentForHash(hash).getEntry(key, hash, null);
+	}
+
+	/**
+	 * Associate the given value with the given key.
+	 * @param key the key
+	 * @param value the value
+	 * @return the previous value, or {@code null} if the key was not present
+	 */
+	@Nullable
+	public V put(long key, @Nullable V value) {
+		int hash = getHash(key);
+		return getSegmentForHash(hash).put(key, hash, null, value, true);
+	}
+
+	/**
+	 * Associate the given value with the given key, unless the key is already present.
+	 * @param key the key
+	 * @param value the value
+	 * @return the current value, or {@code null} if the key was not present
+	 */
+	@Nullable
+	public V putIfAbsent(long key, @Nullable V value) {
+		int hash = getHash(key);
+		return getSegmentForHash(hash).put(key, hash, null, value, false);
+	}
+
+	/**
+	 * Return the value for the given key, computing and putting it first if the key
+	 * is not present or mapped to {@code null}. The mapping function runs without any
+	 * lock held, so concurrent callers may compute a value each, but all of them
+	 * return the value that was put first.
+	 * @param key the key
+	 * @param mappingFunction the function computing a value, which may return
+	 * {@code null} to leave the key absent
+	 * @return the current or computed value, or {@code null} if none
+	 */
+	@Nullable
+	public V computeIfAbsent(long key, LongFunction<? extends V> mappingFunction) {
+		Assert.notNull(mappingFunction, "Mapping function must not be null");
+		V value = get(key);
+		if (value == null) {
+			value = mappingFunction.apply(key);
+			if (value != null) {
+				V existing = putIfAbsent(key, value);
+				if (existing != null) {
+					value = existing;
+				}
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Remove the given key.
+	 * @param key the key
+	 * @return the removed value, or {@code null} if the key was not present
+	 */
+	@Nullable
+	public V remove(long key) {
+		int hash = getHash(key);
+		LongEntry<V> entry = getSegmentForHash(hash).remove(key, hash, null, false, null);
+		return (entry != null ? entry.value : null);
+	}
+
+	/**
+	 * Remove the given key if it is mapped to the given value.
+	 * @param key the key
+	 * @param value the expected value
+	 * @return {@code true} if the key was removed
+	 */
+	public boolean remove(long key, @Nullable Object value) {
+		int hash = getHash(key);
+		return (getSegmentForHash(hash).remove(key, hash, null, true, value) != null);
+	}
+
+	/**
+	 * Replace the value of the given key if it is present.
+	 * @param key the key
+	 * @param value the new value
+	 * @return the previous value, or {@code null} if the key was not present
+	 */
+	@Nullable
+	public V replace(long key, @Nullable V value) {
+		int hash = getHash(key);
+		Segment<V> segment = getSegmentForHash(hash);
+		segment.lock();
+		try {
+			LongEntry<V> entry = segment.getEntry(key, hash, null);
+			if (entry == null) {
+				return null;
+			}
+			V previous = entry.value;
+			entry.value = value;
+			return previous;
+		}
+		finally {
+			segment.unlock();
+		}
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public void clear() {
+		for (Segment<V> segment : this.segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * Remove any entries that have been garbage collected and are no longer referenced.
+	 * Under normal circumstances garbage collected entries are automatically purged as
+	 * items are added to the map. This method can be used to force a purge, and is
+	 * useful when the map is read frequently but updated less often.
+	 */
+	public void purgeUnreferencedEntries() {
+		for (Segment<V> segment : this.segments) {
+			segment.lock();
+			try {
+				segment.purge();
+			}
+			finally {
+				segment.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Return the number of entries, including entries that have been garbage collected
+	 * but not purged yet.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment<V> segment : this.segments) {
+			size += segment.getCount();
+		}
+		return size;
+	}
+
+	/**
+	 * Return whether the map holds no entries.
+	 */
+	public boolean isEmpty() {
+		for (Segment<V> segment : this.segments) {
+			if (segment.getCount() > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Segment<V> getSegmentForHash(int hash) {
+		return this.segments[(hash >>> (32 - this.shift)) & (this.segments.length - 1)];
+	}
+
+
+
+
+	/**
+	 * A single segment used to divide the map to allow better concurrent performance.
+	 * The slot key of an entry is its key.
+	 */
+	@SuppressWarnings("serial")
+	private static final class Segment<V> extends OpenAddressingSegment<LongEntry<V>, V> {
+
+		Segment(int initialSize, float loadFactor, ReferenceType referenceType) {
+			super(initialSize, loadFactor, referenceType);
+		}
+
+		@Override
+		protected boolean matches(LongEntry<V> entry, long slotKey, @Nullable Object key) {
+			return (entry.key == slotKey);
+		}
+
+		@Override
+		protected LongEntry<V> createEntry(long slotKey, @Nullable Object key, @Nullable V value) {
+			return new LongEntry<>(slotKey, value);
+		}
+
+		@Override
+		@Nullable
+		protected V getValue(LongEntry<V> entry) {
+			return entry.value;
+		}
+
+		@Override
+		protected void setValue(LongEntry<V> entry, @Nullable V value) {
+			entry.value = value;
+		}
+	}
+
+
+	/**
+	 * A single map entry.
+	 */
+	private static final class LongEntry<V> {
+
+		final long key;
+
+		@Nullable
+		volatile V value;
+
+		LongEntry(long key, @Nullable V value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+}
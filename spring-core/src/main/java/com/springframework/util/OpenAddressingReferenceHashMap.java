@@ -0,0 +1,509 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.springframework.util;
+
+import com.springframework.lang.Nullable;
+import com.springframework.util.ConcurrentReferenceHashMap.ReferenceType;
+import com.springframework.util.OpenAddressingSegment.EntryReference;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A variant of {@link ConcurrentReferenceHashMap} for read-mostly caches whose
+ * segments use open addressing instead of chained buckets.
+ *
+ * <p>Each segment keeps the hash of every slot next to the array of
+ * {@linkplain SoftReference soft} or {@linkplain WeakReference weak} entry references,
+ * so that a lookup skips slots with a different hash without touching their entry.
+ * Collisions are resolved by linear probing, and removed or garbage collected entries
+ * leave a tombstone until the segment is rehashed.
+ *
+ * <p>Reads never lock. Writes lock the segment they belong to, and also purge the
+ * garbage collected entries of that segment. Unlike {@link ConcurrentReferenceHashMap},
+ * this map has a fixed number of segments and no maximum size or statistics.
+ * {@code null} values and {@code null} keys are supported.
+ *
+ * <p><b>NOTE:</b> The use of references means that there is no guarantee that items
+ * placed into the map will be subsequently available. The garbage collector may discard
+ * references at any time, so it may appear that an unknown thread is silently removing
+ * entries.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ * @see ConcurrentReferenceHashMap
+ */
+public class OpenAddressingReferenceHashMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+
+	private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+	private static final float DEFAULT_LOAD_FACTOR = 0.5f;
+
+	private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	private static final ReferenceType DEFAULT_REFERENCE_TYPE = ReferenceType.SOFT;
+
+	private static final int MAXIMUM_CONCURRENCY_LEVEL = 1 << 16;
+
+
+	/**
+	 * Array of segments indexed using the high order bits from the hash.
+	 */
+	private final Segment<K, V>[] segments;
+
+	/**
+	 * The number of high order hash bits used to index segments.
+	 */
+	private final int shift;
+
+	/**
+	 * Late binding entry set.
+	 */
+	@Nullable
+	private volatile Set<Map.Entry<K, V>> entrySet;
+
+
+	/**
+	 * Create a new {@code OpenAddressingReferenceHashMap} instance.
+	 */
+	public OpenAddressingReferenceHashMap() {
+		this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, DEFAULT_CONCURRENCY_LEVEL, DEFAULT_REFERENCE_TYPE);
+	}
+
+	/**
+	 * Create a new {@code OpenAddressingReferenceHashMap} instance.
+	 * @param initialCapacity the initial capacity of the map
+	 */
+	public OpenAddressingReferenceHashMap(int initialCapacity) {
+		this(initialCapacity, DEFAULT_LOAD_FACTOR, DEFAULT_CONCURRENCY_LEVEL, DEFAULT_REFERENCE_TYPE);
+	}
+
+	/**
+	 * Create a new {@code OpenAddressingReferenceHashMap} instance.
+	 * @param initialCapacity the initial capacity of the map
+	 * @param referenceType the reference type used for entries (soft or weak)
+	 */
+	public OpenAddressingReferenceHashMap(int initialCapacity, ReferenceType referenceType) {
+		this(initialCapacity, DEFAULT_LOAD_FACTOR, DEFAULT_CONCURRENCY_LEVEL, referenceType);
+	}
+
+	/**
+	 * Create a new {@code OpenAddressingReferenceHashMap} instance.
+	 * @param initialCapacity the initial capacity of the map
+	 * @param loadFactor the load factor, between 0 and 1 exclusive. When the share of
+	 * used slots in a segment exceeds this value, the segment is rehashed.
+	 * @param concurrencyLevel the expected number of threads that will concurrently
+	 * write to the map
+	 * @param referenceType the reference type used for entries (soft or weak)
+	 */
+	@SuppressWarnings("unchecked")
+	public OpenAddressingReferenceHashMap(
+			int initialCapacity, float loadFactor, int concurrencyLevel, ReferenceType referenceType) {
+
+		Assert.isTrue(initialCapacity >= 0, "Initial capacity must not be negative");
+		Assert.isTrue(loadFactor > 0f && loadFactor < 1f, "Load factor must be between 0 and 1");
+		Assert.isTrue(concurrencyLevel > 0, "Concurrency level must be positive");
+		Assert.notNull(referenceType, "Reference type must not be null");
+		Assert.isTrue(referenceType == ReferenceType.SOFT || referenceType == ReferenceType.WEAK,
+				"Only SOFT and WEAK reference types are supported");
+		this.shift = ConcurrentReferenceHashMap.calculateShift(concurrencyLevel, MAXIMUM_CONCURRENCY_LEVEL);
+		int size = 1 << this.shift;
+		int roundedUpSegmentCapacity = (int) ((initialCapacity + size - 1L) / size);
+		int initialSize = OpenAddressingSegment.getTableSize(roundedUpSegmentCapacity, loadFactor);
+		this.segments = (Segment<K, V>[]) Array.newInstance(Segment.class, size);
+		for (int i = 0; i < this.segments.length; i++) {
+			this.segments[i] = new Segment<>(initialSize, loadFactor, referenceType);
+		}
+	}
+
+
+	/**
+	 * Get the hash for a given object, apply an additional hash function to reduce
+	 * collisions. This implementation uses the same Wang/Jenkins algorithm as
+	 * {@link ConcurrentReferenceHashMap}. Subclasses can override to provide
+	 * alternative hashing.
+	 * @param o the object to hash (may be null)
+	 * @return the resulting hash code
+	 */
+	protected int getHash(@Nullable Object o) {
+		int hash = (o != null ? o.hashCode() : 0);
+		hash += (hash << 15) ^ 0xffffcd7d;
+		hash ^= (hash >>> 10);
+		hash += (hash << 3);
+		hash ^= (hash >>> 6);
+		hash += (hash << 2) + (hash << 14);
+		hash ^= (hash >>> 16);
+		return hash;
+	}
+
+	@Override
+	@Nullable
+	public V get(@Nullable Object key) {
+		Entry<K, V> entry = getEntry(key);
+		return (entry != null ? entry.getValue() : null);
+	}
+
+	@Override
+	@Nullable
+	public V getOrDefault(@Nullable Object key, @Nullable V defaultValue) {
+		Entry<K, V> entry = getEntry(key);
+		return (entry != null ? entry.getValue() : defaultValue);
+	}
+
+	@Override
+	public boolean containsKey(@Nullable Object key) {
+		return (getEntry(key) != null);
+	}
+
+	@Nullable
+	private Entry<K, V> getEntry(@Nullable Object key) {
+		int hash = getHash(key);
+		return getSegmentForHash(hash).getEntry(hash, hash, key);
+	}
+
+	@Override
+	@Nullable
+	public V put(@Nullable K key, @Nullable V value) {
+		return put(key, value, true);
+	}
+
+	@Override
+	@Nullable
+	public V putIfAbsent(@Nullable K key, @Nullable V value) {
+		return put(key, value, false);
+	}
+
+	@Nullable
+	private V put(@Nullable K key, @Nullable V value, boolean overwriteExisting) {
+		int hash = getHash(key);
+		return getSegmentForHash(hash).put(hash, hash, key, value, overwriteExisting);
+	}
+
+	@Override
+	@Nullable
+	public V remove(@Nullable Object key) {
+		int hash = getHash(key);
+		Entry<K, V> entry = getSegmentForHash(hash).remove(hash, hash, key, false, null);
+		return (entry != null ? entry.getValue() : null);
+	}
+
+	@Override
+	public boolean remove(@Nullable Object key, @Nullable Object value) {
+		int hash = getHash(key);
+		return (getSegmentForHash(hash).remove(hash, hash, key, true, value) != null);
+	}
+
+	@Override
+	public boolean replace(@Nullable K key, @Nullable V oldValue, @Nullable V newValue) {
+		int hash = getHash(key);
+		Segment<K, V> segment = getSegmentForHash(hash);
+		segment.lock();
+		try {
+			Entry<K, V> entry = segment.getEntry(hash, hash, key);
+			if (entry != null && ObjectUtils.nullSafeEquals(entry.getValue(), oldValue)) {
+				entry.setValue(newValue);
+				return true;
+			}
+			return false;
+		}
+		finally {
+			segment.unlock();
+		}
+	}
+
+	@Override
+	@Nullable
+	public V replace(@Nullable K key, @Nullable V value) {
+		int hash = getHash(key);
+		Segment<K, V> segment = getSegmentForHash(hash);
+		segment.lock();
+		try {
+			Entry<K, V> entry = segment.getEntry(hash, hash, key);
+			return (entry != null ? entry.setValue(value) : null);
+		}
+		finally {
+			segment.unlock();
+		}
+	}
+
+	@Override
+	public void clear() {
+		for (Segment<K, V> segment : this.segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * Remove any entries that have been garbage collected and are no longer referenced.
+	 * Under normal circumstances garbage collected entries are automatically purged as
+	 * items are added to the map. This method can be used to force a purge, and is
+	 * useful when the map is read frequently but updated less often.
+	 */
+	public void purgeUnreferencedEntries() {
+		for (Segment<K, V> segment : this.segments) {
+			segment.lock();
+			try {
+				segment.purge();
+			}
+			finally {
+				segment.unlock();
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (Segment<K, V> segment : this.segments) {
+			size += segment.getCount();
+		}
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		for (Segment<K, V> segment : this.segments) {
+			if (segment.getCount() > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		Set<Map.Entry<K, V>> entrySet = this.entrySet;
+		if (entrySet == null) {
+			entrySet = new EntrySet();
+			this.entrySet = entrySet;
+		}
+		return entrySet;
+	}
+
+	private Segment<K, V> getSegmentForHash(int hash) {
+		return this.segments[(hash >>> (32 - this.shift)) & (this.segments.length - 1)];
+	}
+
+
+	/**
+	 * A single segment used to divide the map to allow better concurrent performance.
+	 * The slot key of an entry is the hash of its key.
+	 */
+	@SuppressWarnings("serial")
+	private static final class Segment<K, V> extends OpenAddressingSegment<Entry<K, V>, V> {
+
+		Segment(int initialSize, float loadFactor, ReferenceType referenceType) {
+			super(initialSize, loadFactor, referenceType);
+		}
+
+		@Override
+		protected boolean matches(Entry<K, V> entry, long slotKey, @Nullable Object key) {
+			return ObjectUtils.nullSafeEquals(entry.getKey(), key);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		protected Entry<K, V> createEntry(long slotKey, @Nullable Object key, @Nullable V value) {
+			return new Entry<>((K) key, value);
+		}
+
+		@Override
+		@Nullable
+		protected V getValue(Entry<K, V> entry) {
+			return entry.getValue();
+		}
+
+		@Override
+		protected void setValue(Entry<K, V> entry, @Nullable V value) {
+			entry.setValue(value);
+		}
+	}
+
+
+	/**
+	 * A single map entry.
+	 */
+	private static final class Entry<K, V> implements Map.Entry<K, V> {
+
+		@Nullable
+		private final K key;
+
+		@Nullable
+		private volatile V value;
+
+		public Entry(@Nullable K key, @Nullable V value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		@Override
+		@Nullable
+		public K getKey() {
+			return this.key;
+		}
+
+		@Override
+		@Nullable
+		public V getValue() {
+			return this.value;
+		}
+
+		@Override
+		@Nullable
+		public V setValue(@Nullable V value) {
+			V previous = this.value;
+			this.value = value;
+			return previous;
+		}
+
+		@Override
+		public String toString() {
+			return (this.key + "=" + this.value);
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public final boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry otherEntry = (Map.Entry) other;
+			return (ObjectUtils.nullSafeEquals(getKey(), otherEntry.getKey()) &&
+					ObjectUtils.nullSafeEquals(getValue(), otherEntry.getValue()));
+		}
+
+		@Override
+		public final int hashCode() {
+			return (ObjectUtils.nullSafeHashCode(this.key) ^ ObjectUtils.nullSafeHashCode(this.value));
+		}
+	}
+
+
+	/**
+	 * Internal entry-set implementation.
+	 */
+	private class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+		@Override
+		public Iterator<Map.Entry<K, V>> iterator() {
+			return new EntryIterator();
+		}
+
+		@Override
+		public boolean contains(@Nullable Object o) {
+			if (o instanceof Map.Entry<?, ?>) {
+				Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+				Entry<K, V> otherEntry = OpenAddressingReferenceHashMap.this.getEntry(entry.getKey());
+				return (otherEntry != null && ObjectUtils.nullSafeEquals(otherEntry.getValue(), entry.getValue()));
+			}
+			return false;
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			if (o instanceof Map.Entry<?, ?>) {
+				Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+				return OpenAddressingReferenceHashMap.this.remove(entry.getKey(), entry.getValue());
+			}
+			return false;
+		}
+
+		@Override
+		public int size() {
+			return OpenAddressingReferenceHashMap.this.size();
+		}
+
+		@Override
+		public void clear() {
+			OpenAddressingReferenceHashMap.this.clear();
+		}
+	}
+
+
+	/**
+	 * Internal entry iterator implementation, walking a snapshot of each segment table.
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+
+		private int segmentIndex;
+
+		private int referenceIndex;
+
+		@Nullable
+		private AtomicReferenceArray<EntryReference<Entry<K, V>>> references;
+
+		@Nullable
+		private Entry<K, V> next;
+
+		@Nullable
+		private Entry<K, V> last;
+
+		@Override
+		public boolean hasNext() {
+			getNextIfNecessary();
+			return (this.next != null);
+		}
+
+		@Override
+		public Entry<K, V> next() {
+			getNextIfNecessary();
+			if (this.next == null) {
+				throw new NoSuchElementException();
+			}
+			this.last = this.next;
+			this.next = null;
+			return this.last;
+		}
+
+		private void getNextIfNecessary() {
+			while (this.next == null) {
+				if (this.references == null || this.referenceIndex >= this.references.length()) {
+					if (this.segmentIndex >= segments.length) {
+						return;
+					}
+					this.references = segments[this.segmentIndex].getReferences();
+					this.segmentIndex++;
+					this.referenceIndex = 0;
+				}
+				else {
+					EntryReference<Entry<K, V>> ref = this.references.get(this.referenceIndex++);
+					this.next = (ref != null ? ref.get() : null);
+				}
+			}
+		}
+
+		@Override
+		public void remove() {
+			Assert.state(this.last != null, "No element to remove");
+			OpenAddressingReferenceHashMap.this.remove(this.last.getKey());
+			this.last = null;
+		}
+	}
+
+}
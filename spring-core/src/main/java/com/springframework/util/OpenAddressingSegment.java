@@ -0,0 +1,451 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.springframework.util;
+
+import com.springframework.lang.Nullable;
+import com.springframework.util.ConcurrentReferenceHashMap.ReferenceType;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A segment of an open addressing map holding its entries through
+ * {@linkplain SoftReference soft} or {@linkplain WeakReference weak} references,
+ * shared by {@link OpenAddressingReferenceHashMap} and {@link ConcurrentReferenceLongHashMap}.
+ *
+ * <p>Every slot keeps a {@code long} slot key next to its entry reference: the key
+ * itself for {@code long} keys, or the hash of the key for object keys. A lookup only
+ * dereferences the entry of a slot whose slot key matches. Collisions are resolved by
+ * linear probing. A slot is empty while its reference is {@code null}, and removed or
+ * garbage collected entries leave a {@linkplain #TOMBSTONE tombstone} until the
+ * segment is rehashed.
+ *
+ * <p>Reads never lock. Writes lock the segment, and also purge its garbage collected
+ * entries.
+ *
+ * @param <E> the entry type
+ * @param <V> the value type
+ */
+@SuppressWarnings("serial")
+abstract class OpenAddressingSegment<E, V> extends ReentrantLock {
+
+	static final int MAXIMUM_SEGMENT_SIZE = 1 << 30;
+
+	/**
+	 * Reference left in the slot of a removed or garbage collected entry.
+	 */
+	private static final EntryReference<Object> TOMBSTONE = new EntryReference<Object>() {
+		@Override
+		@Nullable
+		public Object get() {
+			return null;
+		}
+		@Override
+		public int getHash() {
+			return 0;
+		}
+		@Override
+		public void clear() {
+		}
+	};
+
+
+	private final ReferenceQueue<E> queue = new ReferenceQueue<>();
+
+	private final int initialSize;
+
+	private final float loadFactor;
+
+	private final ReferenceType referenceType;
+
+	private volatile Table<E> table;
+
+	/**
+	 * The number of live references in the table.
+	 */
+	private volatile int count;
+
+	/**
+	 * The number of slots holding a live reference or a tombstone.
+	 * Only accessed while holding the lock.
+	 */
+	private int used;
+
+
+	/**
+	 * Create a new segment.
+	 * @param initialSize the initial number of slots, a power of two
+	 * @param loadFactor the share of used slots above which the segment is rehashed
+	 * @param referenceType the reference type used for entries (soft or weak)
+	 */
+	protected OpenAddressingSegment(int initialSize, float loadFactor, ReferenceType referenceType) {
+		this.initialSize = initialSize;
+		this.loadFactor = loadFactor;
+		this.referenceType = referenceType;
+		this.table = new Table<>(initialSize, loadFactor);
+	}
+
+
+	/**
+	 * Return whether the given entry belongs to the key being looked up. Only called
+	 * for entries whose slot key matches.
+	 * @param entry the entry
+	 * @param slotKey the slot key being looked up
+	 * @param key the key being looked up, if the map uses object keys
+	 */
+	protected abstract boolean matches(E entry, long slotKey, @Nullable Object key);
+
+	/**
+	 * Create a new entry.
+	 * @param slotKey the slot key of the entry
+	 * @param key the key of the entry, if the map uses object keys
+	 * @param value the value of the entry
+	 */
+	protected abstract E createEntry(long slotKey, @Nullable Object key, @Nullable V value);
+
+	/**
+	 * Return the value of the given entry.
+	 */
+	@Nullable
+	protected abstract V getValue(E entry);
+
+	/**
+	 * Set the value of the given entry.
+	 */
+	protected abstract void setValue(E entry, @Nullable V value);
+
+	/**
+	 * Return the entry for the given key.
+	 * @param slotKey the slot key of the key
+	 * @param hash the hash of the key
+	 * @param key the key, if the map uses object keys
+	 * @return the entry, or {@code null} if the key is not present
+	 */
+	@Nullable
+	public E getEntry(long slotKey, int hash, @Nullable Object key) {
+		Table<E> table = this.table;
+		int mask = table.mask;
+		for (int index = hash & mask; ; index = (index + 1) & mask) {
+			EntryReference<E> ref = table.references.get(index);
+			if (ref == null) {
+				return null;
+			}
+			if (table.keys.get(index) == slotKey) {
+				// The slot may have been reused for another key since the reference was read
+				E entry = ref.get();
+				if (entry != null && matches(entry, slotKey, key)) {
+					return entry;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Associate the given value with the given key.
+	 * @param slotKey the slot key of the key
+	 * @param hash the hash of the key
+	 * @param key the key, if the map uses object keys
+	 * @param value the value
+	 * @param overwriteExisting if an existing value should be replaced
+	 * @return the previous value, or {@code null} if the key was not present
+	 */
+	@Nullable
+	public V put(long slotKey, int hash, @Nullable Object key, @Nullable V value, boolean overwriteExisting) {
+		lock();
+		try {
+			purge();
+			Table<E> table = this.table;
+			int mask = table.mask;
+			int tombstone = -1;
+			int index = hash & mask;
+			for (; ; index = (index + 1) & mask) {
+				EntryReference<E> ref = table.references.get(index);
+				if (ref == null) {
+					break;
+				}
+				if (ref == TOMBSTONE) {
+					if (tombstone < 0) {
+						tombstone = index;
+					}
+				}
+				else if (table.keys.get(index) == slotKey) {
+					E entry = ref.get();
+					if (entry != null && matches(entry, slotKey, key)) {
+						V previous = getValue(entry);
+						if (overwriteExisting) {
+							setValue(entry, value);
+						}
+						return previous;
+					}
+				}
+			}
+			if (tombstone < 0 && this.used + 1 > table.threshold) {
+				table = rehash(this.count + 1);
+				for (index = hash & table.mask; table.references.get(index) != null; index = (index + 1) & table.mask) {
+				}
+			}
+			else if (tombstone >= 0) {
+				index = tombstone;
+			}
+			if (table.references.get(index) == null) {
+				this.used++;
+			}
+			// Publish the key before the reference, so that readers seeing the reference see the key
+			table.keys.set(index, slotKey);
+			table.references.set(index, createReference(createEntry(slotKey, key, value), hash));
+			this.count++;
+			return null;
+		}
+		finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Remove the given key.
+	 * @param slotKey the slot key of the key
+	 * @param hash the hash of the key
+	 * @param key the key, if the map uses object keys
+	 * @param matchValue if the key should only be removed when mapped to the given value
+	 * @param value the expected value
+	 * @return the removed entry, or {@code null} if none
+	 */
+	@Nullable
+	public E remove(long slotKey, int hash, @Nullable Object key, boolean matchValue, @Nullable Object value) {
+		lock();
+		try {
+			purge();
+			Table<E> table = this.table;
+			int mask = table.mask;
+			for (int index = hash & mask; ; index = (index + 1) & mask) {
+				EntryReference<E> ref = table.references.get(index);
+				if (ref == null) {
+					return null;
+				}
+				if (ref != TOMBSTONE && table.keys.get(index) == slotKey) {
+					E entry = ref.get();
+					if (entry != null && matches(entry, slotKey, key)) {
+						if (matchValue && !ObjectUtils.nullSafeEquals(getValue(entry), value)) {
+							return null;
+						}
+						table.references.set(index, tombstone());
+						ref.clear();
+						this.count--;
+						return entry;
+					}
+				}
+			}
+		}
+		finally {
+			unlock();
+		}
+	}
+
+	public void clear() {
+		lock();
+		try {
+			this.table = new Table<>(this.initialSize, this.loadFactor);
+			this.count = 0;
+			this.used = 0;
+		}
+		finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Turn the slots of garbage collected references into tombstones.
+	 * Must be called while holding the lock.
+	 */
+	public void purge() {
+		Table<E> table = this.table;
+		EntryReference<E> ref = pollForPurge();
+		while (ref != null) {
+			int mask = table.mask;
+			for (int index = ref.getHash() & mask; table.references.get(index) != null; index = (index + 1) & mask) {
+				if (table.references.get(index) == ref) {
+					table.references.set(index, tombstone());
+					this.count--;
+					break;
+				}
+			}
+			ref = pollForPurge();
+		}
+	}
+
+	/**
+	 * Copy the live references into a new table sized for the given number of entries,
+	 * dropping tombstones. Must be called while holding the lock.
+	 */
+	private Table<E> rehash(int requiredCount) {
+		Table<E> table = this.table;
+		Table<E> rehashed = new Table<>(
+				Math.max(getTableSize(requiredCount, this.loadFactor), table.references.length()), this.loadFactor);
+		int count = 0;
+		for (int i = 0; i < table.references.length(); i++) {
+			EntryReference<E> ref = table.references.get(i);
+			if (ref != null && ref.get() != null) {
+				int index = ref.getHash() & rehashed.mask;
+				while (rehashed.references.get(index) != null) {
+					index = (index + 1) & rehashed.mask;
+				}
+				rehashed.keys.set(index, table.keys.get(i));
+				rehashed.references.set(index, ref);
+				count++;
+			}
+		}
+		this.table = rehashed;
+		this.count = count;
+		this.used = count;
+		return rehashed;
+	}
+
+	private EntryReference<E> createReference(E entry, int hash) {
+		if (this.referenceType == ReferenceType.WEAK) {
+			return new WeakEntryReference<>(entry, hash, this.queue);
+		}
+		return new SoftEntryReference<>(entry, hash, this.queue);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Nullable
+	private EntryReference<E> pollForPurge() {
+		return (EntryReference<E>) this.queue.poll();
+	}
+
+	public final int getCount() {
+		return this.count;
+	}
+
+	/**
+	 * Return the current slot references, for iteration. Slots may be {@code null}
+	 * or hold references to entries that are no longer available.
+	 */
+	public final AtomicReferenceArray<EntryReference<E>> getReferences() {
+		return this.table.references;
+	}
+
+
+	/**
+	 * Return the number of slots of a segment table holding the given number of entries.
+	 * @param capacity the number of entries
+	 * @param loadFactor the share of used slots above which a segment is rehashed
+	 */
+	static int getTableSize(int capacity, float loadFactor) {
+		return 1 << ConcurrentReferenceHashMap.calculateShift(
+				(int) Math.min((long) Math.ceil(capacity / (double) loadFactor) + 1, MAXIMUM_SEGMENT_SIZE),
+				MAXIMUM_SEGMENT_SIZE);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <E> EntryReference<E> tombstone() {
+		return (EntryReference<E>) (EntryReference<?>) TOMBSTONE;
+	}
+
+
+	/**
+	 * The slots of a segment: slot keys and references in parallel arrays. The slot
+	 * key is only meaningful while the reference is neither {@code null} nor
+	 * {@link #TOMBSTONE}.
+	 */
+	private static final class Table<E> {
+
+		final AtomicLongArray keys;
+
+		final AtomicReferenceArray<EntryReference<E>> references;
+
+		final int mask;
+
+		/**
+		 * The number of used slots above which the table is rehashed.
+		 */
+		final int threshold;
+
+		Table(int size, float loadFactor) {
+			this.keys = new AtomicLongArray(size);
+			this.references = new AtomicReferenceArray<>(size);
+			this.mask = size - 1;
+			this.threshold = Math.min((int) (size * loadFactor), size - 1);
+		}
+	}
+
+
+	/**
+	 * A reference to an entry contained in a segment table.
+	 */
+	interface EntryReference<E> {
+
+		/**
+		 * Return the referenced entry, or {@code null} if the entry is no longer available.
+		 */
+		@Nullable
+		E get();
+
+		/**
+		 * Return the hash of the key of the referenced entry.
+		 */
+		int getHash();
+
+		/**
+		 * Clear the reference without enqueueing it for purging.
+		 */
+		void clear();
+	}
+
+
+	/**
+	 * Internal {@link EntryReference} implementation for {@link SoftReference SoftReferences}.
+	 */
+	private static final class SoftEntryReference<E> extends SoftReference<E> implements EntryReference<E> {
+
+		private final int hash;
+
+		public SoftEntryReference(E entry, int hash, ReferenceQueue<E> queue) {
+			super(entry, queue);
+			this.hash = hash;
+		}
+
+		@Override
+		public int getHash() {
+			return this.hash;
+		}
+	}
+
+
+	/**
+	 * Internal {@link EntryReference} implementation for {@link WeakReference WeakReferences}.
+	 */
+	private static final class WeakEntryReference<E> extends WeakReference<E> implements EntryReference<E> {
+
+		private final int hash;
+
+		public WeakEntryReference(E entry, int hash, ReferenceQueue<E> queue) {
+			super(entry, queue);
+			this.hash = hash;
+		}
+
+		@Override
+		public int getHash() {
+			return this.hash;
+		}
+	}
+
+}
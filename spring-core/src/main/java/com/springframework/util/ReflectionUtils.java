@@ -1,11 +1,976 @@
 package com.springframework.util;
 
+import com.springframework.lang.Nullable;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
 /**
+ * 反射工具类。
+ * <p>每个类的{@code getDeclaredMethods()}（含接口的默认方法）和{@code getDeclaredFields()}结果
+ * 都缓存在{@link ConcurrentReferenceHashMap}中，JDK每次调用都会复制数组，这里只复制一次。
+ * 缓存条目与类同生命周期，不会阻止类加载器被卸载
  * @author: zfan
  * @create: 2021-08-03 21:46
  **/
 public abstract class ReflectionUtils {
 
+    /**
+     * 只匹配用户声明的方法，排除桥接方法和合成方法
+     */
+    public static final MethodFilter USER_DECLARED_METHODS =
+            (method -> !method.isBridge() && !method.isSynthetic());
+
+    /**
+     * 只匹配可以复制的字段，排除static和final字段
+     */
+    public static final FieldFilter COPYABLE_FIELDS =
+            (field -> !(Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())));
+
+    private static final Class<?>[] EMPTY_CLASS_ARRAY = new Class<?>[0];
+
+    private static final Method[] EMPTY_METHOD_ARRAY = new Method[0];
+
+    private static final Field[] EMPTY_FIELD_ARRAY = new Field[0];
+
+    private static final Object[] EMPTY_OBJECT_ARRAY = new Object[0];
+
+    /**
+     * 类的声明方法缓存，包含接口的默认方法。数组是共享的，只能在本类内部读取
+     */
+    private static final ConcurrentReferenceHashMap<Class<?>, Method[]> declaredMethodsCache =
+            ConcurrentReferenceHashMap.<Class<?>, Method[]>builder()
+                    .initialCapacity(256).referenceType(ConcurrentReferenceHashMap.ReferenceType.EPHEMERON)
+                    .identityKeys(true).writeMode(ConcurrentReferenceHashMap.WriteMode.CAS).build();
+
+    /**
+     * 类的声明字段缓存。数组是共享的，只能在本类内部读取
+     */
+    private static final ConcurrentReferenceHashMap<Class<?>, Field[]> declaredFieldsCache =
+            ConcurrentReferenceHashMap.<Class<?>, Field[]>builder()
+                    .initialCapacity(256).referenceType(ConcurrentReferenceHashMap.ReferenceType.EPHEMERON)
+                    .identityKeys(true).writeMode(ConcurrentReferenceHashMap.WriteMode.CAS).build();
+
+
+    /**
+     * 以本类的权限取得{@link MethodHandle}，与反射调用的访问检查一致
+     */
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    /**
+     * 调用器的种类，即在{@link #invokerCache}值中的位置
+     */
+    private static final int FUNCTION = 0;
+
+    private static final int CONSUMER = 1;
+
+    private static final int SUPPLIER = 2;
+
+    private static final int METHOD_INVOKER = 3;
+
+    private static final int INVOKER_KINDS = 4;
+
+    /**
+     * 表示无法取得{@link MethodHandle}，由调用方基于自己传入的成员退回反射
+     */
+    private static final Object REFLECTIVE_INVOKER = new Object();
+
+    /**
+     * 按成员缓存的调用器，每种调用器按成员是否已关闭访问检查各占一个位置。
+     * 调用器引用其成员的声明类，条目跟随声明类的生命周期
+     */
+    private static final ConcurrentReferenceHashMap<Member, AtomicReferenceArray<Object>> invokerCache =
+            ConcurrentReferenceHashMap.<Member, AtomicReferenceArray<Object>>builder()
+                    .referenceType(ConcurrentReferenceHashMap.ReferenceType.EPHEMERON)
+                    .writeMode(ConcurrentReferenceHashMap.WriteMode.CAS).build();
+
+
+    // 异常处理
+
+    /**
+     * 处理反射调用抛出的异常，检查型异常包装为{@link UndeclaredThrowableException}抛出
+     */
+    public static void handleReflectionException(Exception ex) {
+        if (ex instanceof NoSuchMethodException) {
+            throw new IllegalStateException("Method not found: " + ex.getMessage());
+        }
+        if (ex instanceof IllegalAccessException) {
+            throw new IllegalStateException("Could not access method or field: " + ex.getMessage());
+        }
+        if (ex instanceof InvocationTargetException) {
+            handleInvocationTargetException((InvocationTargetException) ex);
+        }
+        if (ex instanceof RuntimeException) {
+            throw (RuntimeException) ex;
+        }
+        throw new UndeclaredThrowableException(ex);
+    }
+
+    public static void handleInvocationTargetException(InvocationTargetException ex) {
+        rethrowRuntimeException(ex.getTargetException());
+    }
+
+    /**
+     * 原样抛出{@link RuntimeException}和{@link Error}，其他异常包装为{@link UndeclaredThrowableException}
+     */
+    public static void rethrowRuntimeException(Throwable ex) {
+        if (ex instanceof RuntimeException) {
+            throw (RuntimeException) ex;
+        }
+        if (ex instanceof Error) {
+            throw (Error) ex;
+        }
+        throw new UndeclaredThrowableException(ex);
+    }
+
+
+    // 构造器
+
+    @SuppressWarnings("deprecation")  // JDK 9起isAccessible()已过时
+    public static void makeAccessible(Constructor<?> ctor) {
+        if ((!Modifier.isPublic(ctor.getModifiers()) ||
+                !Modifier.isPublic(ctor.getDeclaringClass().getModifiers())) && !ctor.isAccessible()) {
+            ctor.setAccessible(true);
+        }
+    }
+
+
+    // 方法
+
+    /**
+     * 在类及其父类中查找指定名称的无参方法
+     */
+    @Nullable
+    public static Method findMethod(Class<?> clazz, String name) {
+        return findMethod(clazz, name, EMPTY_CLASS_ARRAY);
+    }
+
+    /**
+     * 在类及其父类中查找指定名称和参数类型的方法，接口则在其所有公共方法中查找
+     * @param paramTypes 参数类型，为{@code null}时不限参数
+     */
+    @Nullable
+    public static Method findMethod(Class<?> clazz, String name, @Nullable Class<?>... paramTypes) {
+        Assert.notNull(clazz, "Class must not be null");
+        Assert.notNull(name, "Method name must not be null");
+        Class<?> searchType = clazz;
+        while (searchType != null) {
+            Method[] methods = (searchType.isInterface() ? searchType.getMethods() :
+                    getDeclaredMethods(searchType, false));
+            for (Method method : methods) {
+                if (name.equals(method.getName()) && (paramTypes == null || hasSameParams(method, paramTypes))) {
+                    return method;
+                }
+            }
+            searchType = searchType.getSuperclass();
+        }
+        return null;
+    }
+
+    /**
+     * 先比较参数个数，避免{@link Method#getParameterTypes()}复制数组
+     */
+    private static boolean hasSameParams(Method method, Class<?>[] paramTypes) {
+        if (paramTypes.length != method.getParameterCount()) {
+            return false;
+        }
+        if (paramTypes.length == 0) {
+            return true;
+        }
+        Class<?>[] methodParamTypes = method.getParameterTypes();
+        for (int i = 0; i < paramTypes.length; i++) {
+            if (paramTypes[i] != methodParamTypes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    public static Object invokeMethod(Method method, @Nullable Object target) {
+        return invokeMethod(method, target, EMPTY_OBJECT_ARRAY);
+    }
+
+    /**
+     * 反射调用方法，异常按{@link #handleReflectionException(Exception)}处理
+     */
+    @Nullable
+    public static Object invokeMethod(Method method, @Nullable Object target, @Nullable Object... args) {
+        try {
+            return method.invoke(target, args);
+        }
+        catch (Exception ex) {
+            handleReflectionException(ex);
+        }
+        throw new IllegalStateException("Should never get here");
+    }
+
+    @SuppressWarnings("deprecation")  // JDK 9起isAccessible()已过时
+    public static void makeAccessible(Method method) {
+        if ((!Modifier.isPublic(method.getModifiers()) ||
+                !Modifier.isPublic(method.getDeclaringClass().getModifiers())) && !method.isAccessible()) {
+            method.setAccessible(true);
+        }
+    }
+
+    /**
+     * 对类自身声明的方法（含接口的默认方法）执行回调，不包括父类
+     */
+    public static void doWithLocalMethods(Class<?> clazz, MethodCallback mc) {
+        Method[] methods = getDeclaredMethods(clazz, false);
+        for (Method method : methods) {
+            try {
+                mc.doWith(method);
+            }
+            catch (IllegalAccessException ex) {
+                throw new IllegalStateException("Not allowed to access method '" + method.getName() + "': " + ex);
+            }
+        }
+    }
+
+    /**
+     * 对类及其父类、接口的所有方法执行回调
+     */
+    public static void doWithMethods(Class<?> clazz, MethodCallback mc) {
+        doWithMethods(clazz, mc, null);
+    }
+
+    /**
+     * 对类及其父类、接口中符合过滤条件的方法执行回调，父类或接口中的同签名方法会被重复处理
+     */
+    public static void doWithMethods(Class<?> clazz, MethodCallback mc, @Nullable MethodFilter mf) {
+        Method[] methods = getDeclaredMethods(clazz, false);
+        for (Method method : methods) {
+            if (mf != null && !mf.matches(method)) {
+                continue;
+            }
+            try {
+                mc.doWith(method);
+            }
+            catch (IllegalAccessException ex) {
+                throw new IllegalStateException("Not allowed to access method '" + method.getName() + "': " + ex);
+            }
+        }
+        if (clazz.getSuperclass() != null && (mf != USER_DECLARED_METHODS || clazz.getSuperclass() != Object.class)) {
+            doWithMethods(clazz.getSuperclass(), mc, mf);
+        }
+        else if (clazz.isInterface()) {
+            for (Class<?> superIfc : clazz.getInterfaces()) {
+                doWithMethods(superIfc, mc, mf);
+            }
+        }
+    }
+
+    /**
+     * 返回类及其父类的所有声明方法
+     */
+    public static Method[] getAllDeclaredMethods(Class<?> leafClass) {
+        final List<Method> methods = new ArrayList<>(32);
+        doWithMethods(leafClass, methods::add);
+        return methods.toArray(EMPTY_METHOD_ARRAY);
+    }
+
+    /**
+     * 返回类自身声明的方法，包括其接口中未被覆盖的默认方法。返回的是缓存数组的副本
+     */
+    public static Method[] getDeclaredMethods(Class<?> clazz) {
+        return getDeclaredMethods(clazz, true);
+    }
+
+    private static Method[] getDeclaredMethods(Class<?> clazz, boolean defensive) {
+        Assert.notNull(clazz, "Class must not be null");
+        Method[] result = declaredMethodsCache.get(clazz);
+        if (result == null) {
+            try {
+                Method[] declaredMethods = clazz.getDeclaredMethods();
+                List<Method> defaultMethods = findDefaultMethodsOnInterfaces(clazz, declaredMethods);
+                if (defaultMethods != null) {
+                    result = new Method[declaredMethods.length + defaultMethods.size()];
+                    System.arraycopy(declaredMethods, 0, result, 0, declaredMethods.length);
+                    int index = declaredMethods.length;
+                    for (Method defaultMethod : defaultMethods) {
+                        result[index] = defaultMethod;
+                        index++;
+                    }
+                }
+                else {
+                    result = declaredMethods;
+                }
+                if (result.length == 0) {
+                    result = EMPTY_METHOD_ARRAY;
+                }
+                Method[] existing = declaredMethodsCache.putIfAbsent(clazz, result);
+                if (existing != null) {
+                    result = existing;
+                }
+            }
+            catch (Throwable ex) {
+                throw new IllegalStateException("Failed to introspect Class [" + clazz.getName() +
+                        "] from ClassLoader [" + clazz.getClassLoader() + "]", ex);
+            }
+        }
+        return (result.length == 0 || !defensive) ? result : result.clone();
+    }
+
+    /**
+     * 查找类直接实现的接口中未被类自身覆盖的默认方法，同一签名只取一次，没有时返回{@code null}
+     * @param declaredMethods 类自身声明的方法
+     */
+    @Nullable
+    private static List<Method> findDefaultMethodsOnInterfaces(Class<?> clazz, Method[] declaredMethods) {
+        List<Method> result = null;
+        for (Class<?> ifc : clazz.getInterfaces()) {
+            for (Method ifcMethod : ifc.getMethods()) {
+                if (ifcMethod.isDefault() && !containsSignature(Arrays.asList(declaredMethods), ifcMethod) &&
+                        (result == null || !containsSignature(result, ifcMethod))) {
+                    if (result == null) {
+                        result = new ArrayList<>();
+                    }
+                    result.add(ifcMethod);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean containsSignature(List<Method> methods, Method method) {
+        for (Method candidate : methods) {
+            if (candidate.getName().equals(method.getName()) && hasSameParams(candidate, method.getParameterTypes())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    // 字段
+
+    /**
+     * 在类及其父类中查找指定名称的字段
+     */
+    @Nullable
+    public static Field findField(Class<?> clazz, String name) {
+        return findField(clazz, name, null);
+    }
+
+    /**
+     * 在类及其父类中查找指定名称和/或类型的字段
+     * @param name 字段名，为{@code null}时只按类型匹配
+     * @param type 字段类型，为{@code null}时只按名称匹配
+     */
+    @Nullable
+    public static Field findField(Class<?> clazz, @Nullable String name, @Nullable Class<?> type) {
+        Assert.notNull(clazz, "Class must not be null");
+        Assert.isTrue(name != null || type != null, "Either name or type of the field must be specified");
+        Class<?> searchType = clazz;
+        while (Object.class != searchType && searchType != null) {
+            Field[] fields = getDeclaredFields(searchType);
+            for (Field field : fields) {
+                if ((name == null || name.equals(field.getName())) &&
+                        (type == null || type.equals(field.getType()))) {
+                    return field;
+                }
+            }
+            searchType = searchType.getSuperclass();
+        }
+        return null;
+    }
+
+    public static void setField(Field field, @Nullable Object target, @Nullable Object value) {
+        try {
+            field.set(target, value);
+        }
+        catch (IllegalAccessException ex) {
+            handleReflectionException(ex);
+        }
+    }
+
+    @Nullable
+    public static Object getField(Field field, @Nullable Object target) {
+        try {
+            return field.get(target);
+        }
+        catch (IllegalAccessException ex) {
+            handleReflectionException(ex);
+        }
+        throw new IllegalStateException("Should never get here");
+    }
+
+    @SuppressWarnings("deprecation")  // JDK 9起isAccessible()已过时
+    public static void makeAccessible(Field field) {
+        if ((!Modifier.isPublic(field.getModifiers()) ||
+                !Modifier.isPublic(field.getDeclaringClass().getModifiers()) ||
+                Modifier.isFinal(field.getModifiers())) && !field.isAccessible()) {
+            field.setAccessible(true);
+        }
+    }
+
+    /**
+     * 对类自身声明的字段执行回调，不包括父类
+     */
+    public static void doWithLocalFields(Class<?> clazz, FieldCallback fc) {
+        for (Field field : getDeclaredFields(clazz)) {
+            try {
+                fc.doWith(field);
+            }
+            catch (IllegalAccessException ex) {
+                throw new IllegalStateException("Not allowed to access field '" + field.getName() + "': " + ex);
+            }
+        }
+    }
+
+    /**
+     * 对类及其父类的所有字段执行回调
+     */
+    public static void doWithFields(Class<?> clazz, FieldCallback fc) {
+        doWithFields(clazz, fc, null);
+    }
+
+    /**
+     * 对类及其父类中符合过滤条件的字段执行回调
+     */
+    public static void doWithFields(Class<?> clazz, FieldCallback fc, @Nullable FieldFilter ff) {
+        Class<?> targetClass = clazz;
+        do {
+            Field[] fields = getDeclaredFields(targetClass);
+            for (Field field : fields) {
+                if (ff != null && !ff.matches(field)) {
+                    continue;
+                }
+                try {
+                    fc.doWith(field);
+                }
+                catch (IllegalAccessException ex) {
+                    throw new IllegalStateException("Not allowed to access field '" + field.getName() + "': " + ex);
+                }
+            }
+            targetClass = targetClass.getSuperclass();
+        }
+        while (targetClass != null && targetClass != Object.class);
+    }
+
+    /**
+     * 返回缓存的声明字段数组，调用方不能修改
+     */
+    private static Field[] getDeclaredFields(Class<?> clazz) {
+        Assert.notNull(clazz, "Class must not be null");
+        Field[] result = declaredFieldsCache.get(clazz);
+        if (result == null) {
+            try {
+                result = clazz.getDeclaredFields();
+                if (result.length == 0) {
+                    result = EMPTY_FIELD_ARRAY;
+                }
+                Field[] existing = declaredFieldsCache.putIfAbsent(clazz, result);
+                if (existing != null) {
+                    result = existing;
+                }
+            }
+            catch (Throwable ex) {
+                throw new IllegalStateException("Failed to introspect Class [" + clazz.getName() +
+                        "] from ClassLoader [" + clazz.getClassLoader() + "]", ex);
+            }
+        }
+        return result;
+    }
+
+
+    // 调用器
+
+    /**
+     * 返回调用无参实例方法（例如getter）的{@link Function}，结果按方法缓存。
+     * <p>可以直接链接的公共方法通过{@link LambdaMetafactory}生成实现类，其余通过{@link MethodHandle}调用，
+     * 无法取得{@link MethodHandle}时退回反射。目标方法抛出的{@link RuntimeException}和{@link Error}原样抛出，
+     * 检查型异常包装为{@link UndeclaredThrowableException}。
+     * <p>与反射一样，非公共成员需要先调用{@link #makeAccessible(Method)}；
+     * 是否已关闭访问检查不同的调用方各自取得调用器
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, R> Function<T, R> functionFor(Method method) {
+        Assert.notNull(method, "Method must not be null");
+        Assert.isTrue(!Modifier.isStatic(method.getModifiers()) && method.getParameterCount() == 0 &&
+                method.getReturnType() != void.class, "Method must be a non-void instance method without parameters");
+        Object invoker = getInvoker(method, FUNCTION, ReflectionUtils::createFunction);
+        if (invoker == REFLECTIVE_INVOKER) {
+            return target -> (R) invokeMethod(method, target);
+        }
+        return (Function<T, R>) invoker;
+    }
+
+    /**
+     * 返回调用单参数实例方法（例如setter）的{@link BiConsumer}，方法的返回值被忽略。
+     * 生成方式、访问检查和异常处理同{@link #functionFor(Method)}
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, V> BiConsumer<T, V> consumerFor(Method method) {
+        Assert.notNull(method, "Method must not be null");
+        Assert.isTrue(!Modifier.isStatic(method.getModifiers()) && method.getParameterCount() == 1,
+                "Method must be an instance method with a single parameter");
+        Object invoker = getInvoker(method, CONSUMER, ReflectionUtils::createConsumer);
+        if (invoker == REFLECTIVE_INVOKER) {
+            return (target, value) -> invokeMethod(method, target, value);
+        }
+        return (BiConsumer<T, V>) invoker;
+    }
+
+    /**
+     * 返回调用无参静态方法（例如工厂方法）的{@link Supplier}。
+     * 生成方式、访问检查和异常处理同{@link #functionFor(Method)}
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Supplier<T> supplierFor(Method method) {
+        Assert.notNull(method, "Method must not be null");
+        Assert.isTrue(Modifier.isStatic(method.getModifiers()) && method.getParameterCount() == 0 &&
+                method.getReturnType() != void.class, "Method must be a non-void static method without parameters");
+        Object invoker = getInvoker(method, SUPPLIER, ReflectionUtils::createSupplier);
+        if (invoker == REFLECTIVE_INVOKER) {
+            return () -> (T) invokeMethod(method, null);
+        }
+        return (Supplier<T>) invoker;
+    }
+
+    /**
+     * 返回调用无参构造器的{@link Supplier}。生成方式、访问检查和异常处理同{@link #functionFor(Method)}
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Supplier<T> supplierFor(Constructor<T> ctor) {
+        Assert.notNull(ctor, "Constructor must not be null");
+        Assert.isTrue(ctor.getParameterCount() == 0 && !Modifier.isAbstract(ctor.getDeclaringClass().getModifiers()),
+                "Constructor must belong to a concrete class and have no parameters");
+        Object invoker = getInvoker(ctor, SUPPLIER, ReflectionUtils::createSupplier);
+        if (invoker == REFLECTIVE_INVOKER) {
+            return () -> {
+                try {
+                    return ctor.newInstance();
+                }
+                catch (Exception ex) {
+                    handleReflectionException(ex);
+                    throw new IllegalStateException("Should never get here");
+                }
+            };
+        }
+        return (Supplier<T>) invoker;
+    }
+
+    /**
+     * 返回调用任意方法的{@link MethodInvoker}，静态方法忽略目标对象。
+     * 通过{@link MethodHandle}调用，无法取得时退回反射，访问检查和异常处理同{@link #functionFor(Method)}
+     */
+    public static MethodInvoker invokerFor(Method method) {
+        Assert.notNull(method, "Method must not be null");
+        Object invoker = getInvoker(method, METHOD_INVOKER, ReflectionUtils::createMethodInvoker);
+        if (invoker == REFLECTIVE_INVOKER) {
+            return (target, args) -> invokeMethod(method, target, args);
+        }
+        return (MethodInvoker) invoker;
+    }
+
+    /**
+     * 返回读取字段的{@link Function}，静态字段忽略目标对象。
+     * 通过{@link MethodHandle}读取，无法取得时退回反射
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, V> Function<T, V> getterFor(Field field) {
+        Assert.notNull(field, "Field must not be null");
+        Object invoker = getInvoker(field, FUNCTION, ReflectionUtils::createGetter);
+        if (invoker == REFLECTIVE_INVOKER) {
+            return target -> (V) getField(field, target);
+        }
+        return (Function<T, V>) invoker;
+    }
+
+    /**
+     * 返回写入字段的{@link BiConsumer}，静态字段忽略目标对象。
+     * 通过{@link MethodHandle}写入，无法取得时（例如final字段）退回反射
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, V> BiConsumer<T, V> setterFor(Field field) {
+        Assert.notNull(field, "Field must not be null");
+        Object invoker = getInvoker(field, CONSUMER, ReflectionUtils::createSetter);
+        if (invoker == REFLECTIVE_INVOKER) {
+            return (target, value) -> setField(field, target, value);
+        }
+        return (BiConsumer<T, V>) invoker;
+    }
+
+    /**
+     * 取得成员指定种类的调用器。取得的{@link MethodHandle}取决于成员是否已关闭访问检查，
+     * 而{@link Member#equals}不区分这一点，所以两种情况各占一个位置
+     * @return 调用器，或{@link #REFLECTIVE_INVOKER}表示由调用方基于自己的成员退回反射
+     */
+    @SuppressWarnings("deprecation")  // JDK 9起isAccessible()已过时
+    private static <M extends AccessibleObject & Member> Object getInvoker(
+            M member, int kind, Function<M, Object> factory) {
+
+        AtomicReferenceArray<Object> invokers = invokerCache.get(member);
+        if (invokers == null) {
+            invokers = new AtomicReferenceArray<>(INVOKER_KINDS * 2);
+            AtomicReferenceArray<Object> existing = invokerCache.putIfAbsent(member, invokers);
+            if (existing != null) {
+                invokers = existing;
+            }
+        }
+        int slot = kind * 2 + (member.isAccessible() ? 1 : 0);
+        Object invoker = invokers.get(slot);
+        if (invoker == null) {
+            invoker = factory.apply(member);
+            if (!invokers.compareAndSet(slot, null, invoker)) {
+                invoker = invokers.get(slot);
+            }
+        }
+        return invoker;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object createFunction(Method method) {
+        if (isLinkable(method, method.getDeclaringClass(), method.getReturnType())) {
+            try {
+                Function<Object, Object> function = (Function<Object, Object>) metafactory(
+                        "apply", Function.class, MethodType.methodType(Object.class, Object.class), lookup.unreflect(method),
+                        MethodType.methodType(wrap(method.getReturnType()), method.getDeclaringClass()));
+                return (Function<Object, Object>) target -> {
+                    try {
+                        return function.apply(target);
+                    }
+                    catch (Throwable ex) {
+                        rethrowRuntimeException(ex);
+                        throw new IllegalStateException("Should never get here");
+                    }
+                };
+            }
+            catch (Throwable ex) {
+                // 退回到MethodHandle
+            }
+        }
+        MethodHandle handle = unreflect(method);
+        if (handle == null) {
+            return REFLECTIVE_INVOKER;
+        }
+        MethodHandle generic = handle.asType(MethodType.methodType(Object.class, Object.class));
+        return (Function<Object, Object>) target -> {
+            try {
+                return generic.invokeExact(target);
+            }
+            catch (Throwable ex) {
+                rethrowRuntimeException(ex);
+                throw new IllegalStateException("Should never get here");
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object createConsumer(Method method) {
+        Class<?> paramType = method.getParameterTypes()[0];
+        if (isLinkable(method, method.getDeclaringClass(), paramType, method.getReturnType())) {
+            try {
+                BiConsumer<Object, Object> consumer = (BiConsumer<Object, Object>) metafactory(
+                        "accept", BiConsumer.class, MethodType.methodType(void.class, Object.class, Object.class),
+                        lookup.unreflect(method), MethodType.methodType(void.class, method.getDeclaringClass(), wrap(paramType)));
+                return (BiConsumer<Object, Object>) (target, value) -> {
+                    try {
+                        consumer.accept(target, value);
+                    }
+                    catch (Throwable ex) {
+                        rethrowRuntimeException(ex);
+                    }
+                };
+            }
+            catch (Throwable ex) {
+                // 退回到MethodHandle
+            }
+        }
+        MethodHandle handle = unreflect(method);
+        if (handle == null) {
+            return REFLECTIVE_INVOKER;
+        }
+        return createConsumer(handle.asType(MethodType.methodType(void.class, Object.class, Object.class)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object createSupplier(Executable executable) {
+        Class<?> resultType = (executable instanceof Method ? ((Method) executable).getReturnType() :
+                executable.getDeclaringClass());
+        if (isLinkable(executable, executable.getDeclaringClass(), resultType)) {
+            try {
+                MethodHandle handle = (executable instanceof Method ? lookup.unreflect((Method) executable) :
+                        lookup.unreflectConstructor((Constructor<?>) executable));
+                Supplier<Object> supplier = (Supplier<Object>) metafactory(
+                        "get", Supplier.class, MethodType.methodType(Object.class), handle,
+                        MethodType.methodType(wrap(resultType)));
+                return (Supplier<Object>) () -> {
+                    try {
+                        return supplier.get();
+                    }
+                    catch (Throwable ex) {
+                        rethrowRuntimeException(ex);
+                        throw new IllegalStateException("Should never get here");
+                    }
+                };
+            }
+            catch (Throwable ex) {
+                // 退回到MethodHandle
+            }
+        }
+        MethodHandle handle = (executable instanceof Method ? unreflect((Method) executable) :
+                unreflectConstructor((Constructor<?>) executable));
+        if (handle == null) {
+            return REFLECTIVE_INVOKER;
+        }
+        MethodHandle generic = handle.asType(MethodType.methodType(Object.class));
+        return (Supplier<Object>) () -> {
+            try {
+                return generic.invokeExact();
+            }
+            catch (Throwable ex) {
+                rethrowRuntimeException(ex);
+                throw new IllegalStateException("Should never get here");
+            }
+        };
+    }
+
+    private static Object createMethodInvoker(Method method) {
+        MethodHandle handle = unreflect(method);
+        if (handle == null) {
+            return REFLECTIVE_INVOKER;
+        }
+        int parameterCount = method.getParameterCount();
+        if (Modifier.isStatic(method.getModifiers())) {
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        }
+        MethodHandle spreader = handle.asType(MethodType.genericMethodType(parameterCount + 1))
+                .asSpreader(Object[].class, parameterCount);
+        return (MethodInvoker) (target, args) -> {
+            try {
+                Object[] arguments = (args != null ? args : EMPTY_OBJECT_ARRAY);
+                return spreader.invokeExact(target, arguments);
+            }
+            catch (Throwable ex) {
+                rethrowRuntimeException(ex);
+                throw new IllegalStateException("Should never get here");
+            }
+        };
+    }
+
+    private static Object createGetter(Field field) {
+        MethodHandle handle;
+        try {
+            handle = lookup.unreflectGetter(field);
+        }
+        catch (IllegalAccessException ex) {
+            return REFLECTIVE_INVOKER;
+        }
+        if (Modifier.isStatic(field.getModifiers())) {
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        }
+        MethodHandle generic = handle.asType(MethodType.methodType(Object.class, Object.class));
+        return (Function<Object, Object>) target -> {
+            try {
+                return generic.invokeExact(target);
+            }
+            catch (Throwable ex) {
+                rethrowRuntimeException(ex);
+                throw new IllegalStateException("Should never get here");
+            }
+        };
+    }
+
+    private static Object createSetter(Field field) {
+        MethodHandle handle;
+        try {
+            handle = lookup.unreflectSetter(field);
+        }
+        catch (IllegalAccessException ex) {
+            return REFLECTIVE_INVOKER;
+        }
+        if (Modifier.isStatic(field.getModifiers())) {
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        }
+        return createConsumer(handle.asType(MethodType.methodType(void.class, Object.class, Object.class)));
+    }
+
+    /**
+     * 包装类型为{@code (Object, Object)void}的{@link MethodHandle}
+     */
+    private static BiConsumer<Object, Object> createConsumer(MethodHandle generic) {
+        return (target, value) -> {
+            try {
+                generic.invokeExact(target, value);
+            }
+            catch (Throwable ex) {
+                rethrowRuntimeException(ex);
+            }
+        };
+    }
+
+    /**
+     * 取得方法的{@link MethodHandle}，可变参数方法也按固定参数个数调用，
+     * 否则{@link MethodHandle#asType}会再次收集参数
+     */
+    @Nullable
+    private static MethodHandle unreflect(Method method) {
+        try {
+            return lookup.unreflect(method).asFixedArity();
+        }
+        catch (IllegalAccessException ex) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static MethodHandle unreflectConstructor(Constructor<?> ctor) {
+        try {
+            return lookup.unreflectConstructor(ctor).asFixedArity();
+        }
+        catch (IllegalAccessException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * 通过{@link LambdaMetafactory}生成函数式接口的实现
+     */
+    private static Object metafactory(String name, Class<?> functionalInterface, MethodType samMethodType,
+            MethodHandle implementation, MethodType instantiatedMethodType) throws Throwable {
+
+        CallSite callSite = LambdaMetafactory.metafactory(lookup, name, MethodType.methodType(functionalInterface),
+                samMethodType, implementation, instantiatedMethodType);
+        return callSite.getTarget().invoke();
+    }
+
+    /**
+     * 生成的实现类定义在本类的类加载器中，并直接链接到目标：
+     * 目标必须是公共成员，涉及的类型必须是公共的且对本类的类加载器可见
+     */
+    private static boolean isLinkable(Member member, Class<?>... types) {
+        if (!Modifier.isPublic(member.getModifiers())) {
+            return false;
+        }
+        for (Class<?> type : types) {
+            while (type.isArray()) {
+                type = type.getComponentType();
+            }
+            if (!type.isPrimitive() && (!Modifier.isPublic(type.getModifiers()) || !isVisible(type))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isVisible(Class<?> type) {
+        try {
+            return (Class.forName(type.getName(), false, ReflectionUtils.class.getClassLoader()) == type);
+        }
+        catch (Throwable ex) {
+            return false;
+        }
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        return (type.isPrimitive() ? MethodType.methodType(type).wrap().returnType() : type);
+    }
+
+
+    // 缓存
+
+    /**
+     * 清空方法、字段和调用器缓存
+     */
+    public static void clearCache() {
+        declaredMethodsCache.clear();
+        declaredFieldsCache.clear();
+        invokerCache.clear();
+    }
+
+
+    /**
+     * 调用任意方法的函数式接口，由{@link #invokerFor(Method)}返回
+     */
+    @FunctionalInterface
+    public interface MethodInvoker {
+
+        /**
+         * 调用方法
+         * @param target 目标对象，静态方法时忽略
+         * @param args 方法参数
+         * @return 方法的返回值，{@code void}方法返回{@code null}
+         */
+        @Nullable
+        Object invoke(@Nullable Object target, @Nullable Object... args);
+    }
+
+
+    /**
+     * 方法回调
+     */
+    @FunctionalInterface
+    public interface MethodCallback {
+
+        void doWith(Method method) throws IllegalArgumentException, IllegalAccessException;
+    }
+
+
+    /**
+     * 方法过滤器
+     */
+    @FunctionalInterface
+    public interface MethodFilter {
+
+        boolean matches(Method method);
+
+        /**
+         * 组合两个过滤器，两者都匹配时才匹配
+         */
+        default MethodFilter and(MethodFilter next) {
+            Assert.notNull(next, "Next MethodFilter must not be null");
+            return method -> matches(method) && next.matches(method);
+        }
+    }
+
+
+    /**
+     * 字段回调
+     */
+    @FunctionalInterface
+    public interface FieldCallback {
+
+        void doWith(Field field) throws IllegalArgumentException, IllegalAccessException;
+    }
+
+
+    /**
+     * 字段过滤器
+     */
+    @FunctionalInterface
+    public interface FieldFilter {
+
+        boolean matches(Field field);
 
+        /**
+         * 组合两个过滤器，两者都匹配时才匹配
+         */
+        default FieldFilter and(FieldFilter next) {
+            Assert.notNull(next, "Next FieldFilter must not be null");
+            return field -> matches(field) && next.matches(field);
+        }
+    }
 
 }
@@ -0,0 +1,156 @@
+package com.springframework.core;
+
+import com.springframework.core.SerializableTypeWrapper.SerializableTypeProxy;
+import com.springframework.core.SerializableTypeWrapper.TypeProvider;
+import com.springframework.util.MicroBenchmark;
+import com.springframework.util.ReflectionUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 比较{@link ResolvableType}的紧凑序列化形式与默认Java序列化，并校验各类型提供方编码的往返结果
+ * <p>每种类型先做往返校验：反序列化结果须与原实例相等，且使用预期的类型提供方，校验失败抛出{@link AssertionError}。
+ * 之后输出两种形式的字节数和序列化、反序列化的耗时。默认序列化一侧只写出ResolvableType包装的类型代理及其提供方，
+ * 即默认形式至少要写出的内容
+ * <p>运行方式：
+ * <pre class="code">
+ * mvn -pl spring-core test-compile
+ * java -cp spring-core/target/classes:spring-core/target/test-classes \
+ *     com.springframework.core.ResolvableTypeSerializationBenchmark
+ * </pre>
+ * @author: zfan
+ * @create: 2026-10-17 10:12
+ **/
+public class ResolvableTypeSerializationBenchmark {
+
+    private static final int OPERATIONS_PER_ROUND = 20000;
+
+    public List<String> listField;
+
+    public Map<String, List<Integer>> mapField;
+
+    public Map<Long, List<String>> fallbackField;
+
+    public void handle(Set<Long> values, int count) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, ResolvableType> types = new LinkedHashMap<>();
+        types.put("field", checkProvider(ResolvableType.forField(
+                ResolvableTypeSerializationBenchmark.class.getField("listField")),
+                SerializableTypeWrapper.FieldTypeProvider.class));
+        types.put("method parameter", checkProvider(ResolvableType.forMethodParameter(new MethodParameter(
+                ResolvableTypeSerializationBenchmark.class.getMethod("handle", Set.class, int.class), 0)),
+                SerializableTypeWrapper.MethodParameterTypeProvider.class));
+        types.put("method invoke", checkProvider(ResolvableType.forField(
+                ResolvableTypeSerializationBenchmark.class.getField("mapField")).getGeneric(1),
+                SerializableTypeWrapper.MethodInvokeTypeProvider.class));
+        types.put("declared type", checkProvider(ResolvableType.forClass(ArrayList.class).getSuperType(),
+                SerializableTypeWrapper.DeclaredTypeProvider.class));
+        types.put("writeObject fallback", checkProvider(ResolvableType.forType(null,
+                new FieldGenericTypeProvider(ResolvableTypeSerializationBenchmark.class, "fallbackField"), null),
+                FieldGenericTypeProvider.class));
+
+        for (Map.Entry<String, ResolvableType> entry : types.entrySet()) {
+            checkRoundTrip(entry.getKey(), entry.getValue());
+        }
+        System.out.println("Round trips passed for " + types.keySet());
+
+        MicroBenchmark benchmark = new MicroBenchmark(OPERATIONS_PER_ROUND);
+        for (Map.Entry<String, ResolvableType> entry : types.entrySet()) {
+            String name = entry.getKey();
+            ResolvableType type = entry.getValue();
+            Type defaultForm = wrappedType(type);
+            byte[] serialized = serialize(type);
+            byte[] defaultSerialized = serialize(defaultForm);
+            System.out.println(name + ": SerializedForm " + serialized.length + " bytes, default " +
+                    defaultSerialized.length + " bytes");
+            benchmark.run(name + " SerializedForm write", index -> serialize(type));
+            benchmark.run(name + " default write", index -> serialize(defaultForm));
+            benchmark.run(name + " SerializedForm read", index -> deserialize(serialized));
+            benchmark.run(name + " default read", index -> deserialize(defaultSerialized));
+        }
+        System.out.println("(" + benchmark.getConsumed() + " results consumed)");
+    }
+
+    /**
+     * 校验类型由预期的提供方给出，确保每种编码都被覆盖
+     */
+    private static ResolvableType checkProvider(ResolvableType type, Class<?> expectedProvider) {
+        Type underlying = wrappedType(type);
+        if (!(underlying instanceof SerializableTypeProxy) ||
+                !expectedProvider.isInstance(((SerializableTypeProxy) underlying).getTypeProvider())) {
+            throw new AssertionError("Expected " + type + " to be provided by " + expectedProvider.getSimpleName());
+        }
+        return type;
+    }
+
+    /**
+     * 返回ResolvableType包装的可序列化类型，{@link ResolvableType#getType()}返回的是解包后的类型
+     */
+    private static Type wrappedType(ResolvableType type) {
+        Field field = ReflectionUtils.findField(ResolvableType.class, "type");
+        ReflectionUtils.makeAccessible(field);
+        return (Type) ReflectionUtils.getField(field, type);
+    }
+
+    private static void checkRoundTrip(String name, ResolvableType type) throws Exception {
+        ResolvableType copy = (ResolvableType) deserialize(serialize(type));
+        if (!type.equals(copy) || !type.toString().equals(copy.toString()) || type.resolve() != copy.resolve()) {
+            throw new AssertionError(name + ": " + type + " deserialized as " + copy);
+        }
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+
+    /**
+     * 不属于紧凑编码的类型提供方，由{@code writeObject}回退写出
+     */
+    private static class FieldGenericTypeProvider implements TypeProvider {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Class<?> declaringClass;
+
+        private final String fieldName;
+
+        FieldGenericTypeProvider(Class<?> declaringClass, String fieldName) {
+            this.declaringClass = declaringClass;
+            this.fieldName = fieldName;
+        }
+
+        @Override
+        public Type getType() {
+            try {
+                return this.declaringClass.getField(this.fieldName).getGenericType();
+            }
+            catch (NoSuchFieldException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+}
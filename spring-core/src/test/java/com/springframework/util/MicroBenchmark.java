@@ -0,0 +1,136 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.springframework.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Minimal single-threaded benchmark harness shared by the runnable benchmarks
+ * under {@code src/test}, which do not depend on JMH.
+ *
+ * <p>Each operation is warmed up, then timed over several measurement rounds.
+ * The fastest round is reported in nanoseconds per operation, together with the
+ * bytes allocated per operation when the JVM exposes per-thread allocation
+ * counters (HotSpot's {@code com.sun.management.ThreadMXBean}).
+ *
+ * <p>The numbers are indicative only: use them to compare implementations run in
+ * the same JVM, not as absolute measurements.
+ */
+public final class MicroBenchmark {
+
+	private static final int WARMUP_ROUNDS = 5;
+
+	private static final int MEASUREMENT_ROUNDS = 5;
+
+	private final int operationsPerRound;
+
+	private final Object[] sink = new Object[1];
+
+	private int consumed;
+
+
+	/**
+	 * Create a new harness.
+	 * @param operationsPerRound the number of operations in each warmup and
+	 * measurement round
+	 */
+	public MicroBenchmark(int operationsPerRound) {
+		Assert.isTrue(operationsPerRound > 0, "Operations per round must be positive");
+		this.operationsPerRound = operationsPerRound;
+	}
+
+
+	/**
+	 * Measure the given operation and print a line with its results.
+	 * @param name the name to print for the operation
+	 * @param operation the operation to measure
+	 */
+	public void run(String name, Operation operation) throws Exception {
+		for (int round = 0; round < WARMUP_ROUNDS; round++) {
+			runRound(operation);
+		}
+		long bestNanos = Long.MAX_VALUE;
+		long bestBytes = Long.MAX_VALUE;
+		for (int round = 0; round < MEASUREMENT_ROUNDS; round++) {
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			runRound(operation);
+			long nanos = System.nanoTime() - start;
+			bytes = allocatedBytes() - bytes;
+			bestNanos = Math.min(bestNanos, nanos);
+			bestBytes = Math.min(bestBytes, bytes);
+		}
+		double nanosPerOp = (double) bestNanos / this.operationsPerRound;
+		if (allocatedBytes() >= 0) {
+			System.out.println(String.format(Locale.ROOT, "%-48s %10.1f ns/op %10.1f B/op",
+					name, nanosPerOp, (double) bestBytes / this.operationsPerRound));
+		}
+		else {
+			System.out.println(String.format(Locale.ROOT, "%-48s %10.1f ns/op", name, nanosPerOp));
+		}
+	}
+
+	private void runRound(Operation operation) throws Exception {
+		for (int i = 0; i < this.operationsPerRound; i++) {
+			consume(operation.run(i));
+		}
+	}
+
+	private void consume(Object result) {
+		// Keep results observable so that the JIT cannot drop the operation
+		if (result != this.sink[0]) {
+			this.sink[0] = result;
+			this.consumed++;
+		}
+	}
+
+	/**
+	 * Return the number of distinct consecutive results seen so far. Callers may
+	 * print it so that the consumed results stay observable.
+	 */
+	public int getConsumed() {
+		return this.consumed;
+	}
+
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean hotSpotThreads = (com.sun.management.ThreadMXBean) threads;
+			if (hotSpotThreads.isThreadAllocatedMemorySupported() && hotSpotThreads.isThreadAllocatedMemoryEnabled()) {
+				return hotSpotThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+
+	/**
+	 * A measured operation.
+	 */
+	public interface Operation {
+
+		/**
+		 * Run the operation once.
+		 * @param index the index of the operation within the current round
+		 * @return a result to consume, so that the operation is not optimized away
+		 */
+		Object run(int index) throws Exception;
+	}
+
+}
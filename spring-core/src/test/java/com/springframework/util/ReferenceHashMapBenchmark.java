@@ -0,0 +1,107 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.springframework.util;
+
+import java.util.Map;
+
+/**
+ * Runnable benchmark comparing lookups in {@link OpenAddressingReferenceHashMap}
+ * with lookups in {@link ConcurrentReferenceHashMap}.
+ *
+ * <p>Three key sets are measured against each map: keys that are present (hit),
+ * keys that are absent (miss), and present keys that all share a single hash code
+ * (high collision), which exercises the linear probe of the open addressing map
+ * against the bucket chain of the chained map.
+ *
+ * <p>Run with:
+ * <pre class="code">
+ * mvn -pl spring-core test-compile
+ * java -cp spring-core/target/classes:spring-core/target/test-classes \
+ *     com.springframework.util.ReferenceHashMapBenchmark
+ * </pre>
+ *
+ * @see MicroBenchmark
+ */
+public class ReferenceHashMapBenchmark {
+
+	private static final int KEY_COUNT = 4096;
+
+	private static final int COLLIDING_KEY_COUNT = 64;
+
+	private static final int OPERATIONS_PER_ROUND = 1 << 20;
+
+
+	public static void main(String[] args) throws Exception {
+		String[] keys = new String[KEY_COUNT];
+		String[] missingKeys = new String[KEY_COUNT];
+		for (int i = 0; i < KEY_COUNT; i++) {
+			keys[i] = "key-" + i;
+			missingKeys[i] = "missing-" + i;
+		}
+		CollidingKey[] collidingKeys = new CollidingKey[COLLIDING_KEY_COUNT];
+		for (int i = 0; i < COLLIDING_KEY_COUNT; i++) {
+			collidingKeys[i] = new CollidingKey(i);
+		}
+
+		MicroBenchmark benchmark = new MicroBenchmark(OPERATIONS_PER_ROUND);
+		run(benchmark, "OpenAddressingReferenceHashMap", new OpenAddressingReferenceHashMap<>(),
+				new OpenAddressingReferenceHashMap<>(), keys, missingKeys, collidingKeys);
+		run(benchmark, "ConcurrentReferenceHashMap", new ConcurrentReferenceHashMap<>(),
+				new ConcurrentReferenceHashMap<>(), keys, missingKeys, collidingKeys);
+		System.out.println("(" + benchmark.getConsumed() + " results consumed)");
+	}
+
+	private static void run(MicroBenchmark benchmark, String name,
+			Map<String, Object> map, Map<CollidingKey, Object> collidingMap,
+			String[] keys, String[] missingKeys, CollidingKey[] collidingKeys) throws Exception {
+
+		for (String key : keys) {
+			map.put(key, key);
+		}
+		for (CollidingKey key : collidingKeys) {
+			collidingMap.put(key, key);
+		}
+		int mask = KEY_COUNT - 1;
+		benchmark.run(name + " hit", index -> map.get(keys[index & mask]));
+		benchmark.run(name + " miss", index -> map.get(missingKeys[index & mask]));
+		benchmark.run(name + " high collision", index -> collidingMap.get(collidingKeys[index % COLLIDING_KEY_COUNT]));
+	}
+
+
+	/**
+	 * A key whose instances all share the same hash code.
+	 */
+	private static final class CollidingKey {
+
+		private final int id;
+
+		CollidingKey(int id) {
+			this.id = id;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return (this == other || (other instanceof CollidingKey && this.id == ((CollidingKey) other).id));
+		}
+
+		@Override
+		public int hashCode() {
+			return 42;
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.springframework.util;
+
+import java.lang.reflect.Method;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Runnable benchmark comparing the invokers returned by {@link ReflectionUtils}
+ * with plain {@link Method#invoke}.
+ *
+ * <p>Covers a public getter (generated through {@code LambdaMetafactory}), a
+ * private getter made accessible (invoked through a {@code MethodHandle}), the
+ * same public getter with its accessible flag set, a setter, and a varargs
+ * method invoked through a {@link ReflectionUtils.MethodInvoker} at fixed arity.
+ * Each invoker is checked against {@link Method#invoke} before it is measured.
+ *
+ * <p>Run with:
+ * <pre class="code">
+ * mvn -pl spring-core test-compile
+ * java -cp spring-core/target/classes:spring-core/target/test-classes \
+ *     com.springframework.util.ReflectionInvokerBenchmark
+ * </pre>
+ *
+ * @see MicroBenchmark
+ */
+public class ReflectionInvokerBenchmark {
+
+	private static final int OPERATIONS_PER_ROUND = 1 << 20;
+
+
+	public static void main(String[] args) throws Exception {
+		Bean bean = new Bean();
+		MicroBenchmark benchmark = new MicroBenchmark(OPERATIONS_PER_ROUND);
+
+		Method getter = Bean.class.getMethod("getName");
+		Function<Bean, String> getterFunction = ReflectionUtils.functionFor(getter);
+		check("public getter", getter.invoke(bean), getterFunction.apply(bean));
+		benchmark.run("public getter Method.invoke", index -> getter.invoke(bean));
+		benchmark.run("public getter functionFor", index -> getterFunction.apply(bean));
+
+		Method accessibleGetter = Bean.class.getMethod("getName");
+		accessibleGetter.setAccessible(true);
+		Function<Bean, String> accessibleGetterFunction = ReflectionUtils.functionFor(accessibleGetter);
+		check("accessible getter", accessibleGetter.invoke(bean), accessibleGetterFunction.apply(bean));
+		benchmark.run("accessible getter Method.invoke", index -> accessibleGetter.invoke(bean));
+		benchmark.run("accessible getter functionFor", index -> accessibleGetterFunction.apply(bean));
+
+		Method privateGetter = Bean.class.getDeclaredMethod("getCount");
+		ReflectionUtils.makeAccessible(privateGetter);
+		Function<Bean, Integer> privateGetterFunction = ReflectionUtils.functionFor(privateGetter);
+		check("private getter", privateGetter.invoke(bean), privateGetterFunction.apply(bean));
+		benchmark.run("private getter Method.invoke", index -> privateGetter.invoke(bean));
+		benchmark.run("private getter functionFor", index -> privateGetterFunction.apply(bean));
+
+		Method setter = Bean.class.getMethod("setName", String.class);
+		BiConsumer<Bean, String> setterConsumer = ReflectionUtils.consumerFor(setter);
+		benchmark.run("setter Method.invoke", index -> setter.invoke(bean, "bean"));
+		benchmark.run("setter consumerFor", index -> {
+			setterConsumer.accept(bean, "bean");
+			return bean;
+		});
+
+		Method varargs = Bean.class.getMethod("join", String[].class);
+		ReflectionUtils.MethodInvoker varargsInvoker = ReflectionUtils.invokerFor(varargs);
+		Object[] varargsArguments = {new String[] {"a", "b", "c"}};
+		check("varargs", varargs.invoke(bean, varargsArguments), varargsInvoker.invoke(bean, varargsArguments));
+		benchmark.run("varargs Method.invoke", index -> varargs.invoke(bean, varargsArguments));
+		benchmark.run("varargs invokerFor", index -> varargsInvoker.invoke(bean, varargsArguments));
+
+		benchmark.run("functionFor lookup", index -> ReflectionUtils.functionFor(getter));
+		benchmark.run("functionFor lookup (accessible)", index -> ReflectionUtils.functionFor(accessibleGetter));
+		System.out.println("(" + benchmark.getConsumed() + " results consumed)");
+	}
+
+	private static void check(String name, Object expected, Object actual) {
+		if (!ObjectUtils.nullSafeEquals(expected, actual)) {
+			throw new AssertionError(name + ": expected " + expected + " but was " + actual);
+		}
+	}
+
+
+	/**
+	 * Target of the measured invocations.
+	 */
+	public static class Bean {
+
+		private String name = "bean";
+
+		private int count = 42;
+
+		public String getName() {
+			return this.name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		@SuppressWarnings("unused")
+		private Integer getCount() {
+			return this.count;
+		}
+
+		public int join(String... parts) {
+			return parts.length;
+		}
+	}
+
+}